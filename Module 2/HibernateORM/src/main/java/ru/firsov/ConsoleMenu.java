@@ -1,5 +1,7 @@
 package ru.firsov;
 
+import ru.firsov.dao.QueryCacheStats;
+import ru.firsov.dao.SlowQueryMonitor;
 import ru.firsov.service.UserService;
 import java.util.List;
 import java.util.Optional;
@@ -36,6 +38,7 @@ public class ConsoleMenu {
 
         System.out.println("Программа завершена.");
         scanner.close();
+        userService.shutdown();
     }
 
     private void processChoice(String choice) {
@@ -45,6 +48,8 @@ public class ConsoleMenu {
             case "3" -> getAllUsers();
             case "4" -> updateUser();
             case "5" -> deleteUser();
+            case "6" -> showQueryStats();
+            case "7" -> showSlowQueries();
             case "0" -> exit();
             default -> System.out.println("Неверный выбор. Попробуйте снова.");
         }
@@ -175,6 +180,46 @@ public class ConsoleMenu {
         }
     }
 
+    private void showQueryStats() {
+        System.out.println("\n=== СТАТИСТИКА ЗАПРОСОВ ===");
+        QueryCacheStats stats = userService.getQueryCacheStats();
+        if (!stats.statisticsEnabled()) {
+            System.out.println("Статистика Hibernate выключена (hibernate.generate_statistics).");
+        }
+        System.out.printf("Кеш планов запросов:     %d попаданий, %d промахов (%.1f%%)%n",
+                stats.planCacheHits(), stats.planCacheMisses(), stats.planCacheHitRatio() * 100);
+        System.out.println("Выполнено запросов:      " + stats.queryExecutions());
+        System.out.println("Подготовлено statement:  " + stats.preparedStatements());
+        System.out.println("prepareThreshold:        " + stats.prepareThreshold());
+        System.out.println("Подготовлено на сервере: " + stats.serverPreparedStatements()
+                + " (выполнений: " + stats.serverPreparedExecutions() + ")");
+    }
+
+    private void showSlowQueries() {
+        SlowQueryMonitor monitor = SlowQueryMonitor.getInstance();
+        System.out.println("\n=== МЕДЛЕННЫЕ ЗАПРОСЫ (порог " + monitor.getThresholdMillis() + " мс) ===");
+        List<SlowQueryMonitor.StatementSummary> top = monitor.topStatements(10);
+        if (top.isEmpty()) {
+            System.out.println("Запросы еще не выполнялись.");
+            return;
+        }
+        System.out.println("Всего, мс | Вызовов | Медленных | Сред., мс | Макс., мс | Запрос");
+        for (SlowQueryMonitor.StatementSummary summary : top) {
+            System.out.printf("%9.1f | %7d | %9d | %9.2f | %9.2f | %s%n",
+                    summary.totalMillis(), summary.count(), summary.slowCount(),
+                    summary.avgMillis(), summary.maxMillis(), truncate(summary.shape(), 80));
+        }
+        List<SlowQueryMonitor.CapturedPlan> plans = monitor.recentPlans();
+        System.out.println("\nПланы медленных запросов (последние " + plans.size() + "):");
+        for (SlowQueryMonitor.CapturedPlan plan : plans) {
+            System.out.println("\n-----------------------------");
+            System.out.println(plan.capturedAt().toString().substring(0, 19).replace("T", " ")
+                    + "  " + plan.elapsedMillis() + " мс");
+            System.out.println(plan.shape());
+            System.out.print(plan.plan());
+        }
+    }
+
     private void exit() {
         System.out.println("\nЗавершение работы...");
         running = false;
@@ -193,6 +238,8 @@ public class ConsoleMenu {
         System.out.println("3. Показать всех");
         System.out.println("4. Обновить данные");
         System.out.println("5. Удалить пользователя");
+        System.out.println("6. Статистика запросов");
+        System.out.println("7. Медленные запросы");
         System.out.println("0. Выйти");
     }
 
@@ -3,13 +3,30 @@ package ru.firsov;
 import org.hibernate.SessionFactory;
 import org.hibernate.cfg.Configuration;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 public class HibernateUtil {
+    private static final String CONFIG_RESOURCE = "hibernate.cfg.xml";
+    // список JDBC URL шардов через запятую; URL служит именем шарда, порядок менять нельзя
+    private static final String SHARD_URLS_PROPERTY = "user_dao.sharding.urls";
+    // список шардов до последнего изменения, задается только на время ребалансировки
+    private static final String PREVIOUS_SHARD_URLS_PROPERTY = "user_dao.sharding.previous_urls";
     private static SessionFactory sessionFactory;
+    private static Configuration defaultConfiguration;
+    private static List<String> shardUrls = List.of();
+    private static List<String> previousShardUrls = List.of();
+    private static Map<String, SessionFactory> shardSessionFactories;
     static {
         try {
             System.out.println("Инициализация Hibernate");
             buildSessionFactoryWithConfiguration();
-            System.out.println("SessionFactory создана");
+            if (sessionFactory != null) {
+                System.out.println("SessionFactory создана");
+            }
         } catch (Throwable ex) {
             System.err.println("\nОшибка инциализации Hibernate");
             System.err.println("Сообщение: " + ex.getMessage());
@@ -20,22 +37,85 @@ public class HibernateUtil {
     private static void buildSessionFactoryWithConfiguration() {
         Configuration configuration = new Configuration();
         try {
-            configuration.configure("hibernate.cfg.xml");
+            configuration.configure(CONFIG_RESOURCE);
             System.out.println("Конфигурация загружена из hibernate.cfg.xml");
+            shardUrls = parseShardUrls(configuration.getProperty(SHARD_URLS_PROPERTY));
+            previousShardUrls = parseShardUrls(configuration.getProperty(PREVIOUS_SHARD_URLS_PROPERTY));
 
         } catch (Exception e) {
             System.out.println(e.getMessage());
         }
         configuration.addAnnotatedClass(User.class);
+        if (!shardUrls.isEmpty()) {
+            // в режиме шардирования базу по умолчанию не трогаем: она может вовсе не существовать
+            defaultConfiguration = configuration;
+            System.out.println("Включено шардирование, SessionFactory по умолчанию не создается");
+            return;
+        }
         sessionFactory = configuration.buildSessionFactory();
     }
-    public static SessionFactory getSessionFactory() {
+    public static synchronized SessionFactory getSessionFactory() {
+        if (sessionFactory == null && defaultConfiguration != null) {
+            sessionFactory = defaultConfiguration.buildSessionFactory();
+            defaultConfiguration = null;
+        }
         if (sessionFactory == null) {
             throw new IllegalStateException("SessionFactory не инициализирована");
         }
         return sessionFactory;
     }
+    public static boolean isShardingEnabled() {
+        return !shardUrls.isEmpty();
+    }
+
+    public static List<String> getPreviousShardUrls() {
+        return previousShardUrls;
+    }
+
+    public static synchronized Map<String, SessionFactory> getShardSessionFactories() {
+        if (shardSessionFactories == null) {
+            Map<String, SessionFactory> factories = new LinkedHashMap<>();
+            for (String url : shardUrls) {
+                System.out.println("Подключение к шарду " + url);
+                factories.put(url, buildSessionFactory(url));
+            }
+            shardSessionFactories = Collections.unmodifiableMap(factories);
+        }
+        return shardSessionFactories;
+    }
+
+    public static SessionFactory buildSessionFactory(String url) {
+        Configuration configuration = new Configuration();
+        configuration.configure(CONFIG_RESOURCE);
+        configuration.setProperty("connection.url", url);
+        configuration.setProperty("hibernate.connection.url", url);
+        configuration.addAnnotatedClass(User.class);
+        return configuration.buildSessionFactory();
+    }
+
+    private static List<String> parseShardUrls(String value) {
+        if (value == null || value.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .toList();
+    }
+
     public static void shutdown() {
+        synchronized (HibernateUtil.class) {
+            if (shardSessionFactories != null) {
+                for (SessionFactory factory : shardSessionFactories.values()) {
+                    try {
+                        factory.close();
+                    } catch (Exception e) {
+                        System.err.println("Ошибка при закрытии SessionFactory шарда: " + e.getMessage());
+                    }
+                }
+                shardSessionFactories = null;
+            }
+        }
         if (sessionFactory != null) {
             try {
                 sessionFactory.close();
@@ -1,8 +1,19 @@
 package ru.firsov;
 
+import ru.firsov.http.UserHttpServer;
+import ru.firsov.service.UserService;
+
 public class Main {
+    private static final String HTTP_OPTION = "--http";
+    private static final int DEFAULT_HTTP_PORT = 8080;
+
     public static void main(String[] args) {
         System.out.println("Запуск User Service Application...");
+        Integer httpPort = parseHttpPort(args);
+        if (httpPort != null) {
+            startHttp(httpPort);
+            return;
+        }
         try {
             ConsoleMenu menu = new ConsoleMenu();
             menu.start();
@@ -14,6 +25,44 @@ public class Main {
             System.out.println("Приложение завершено.");
         }
     }
+
+    // сервер работает в собственных потоках, ресурсы освобождаются при остановке JVM
+    private static void startHttp(int port) {
+        // keep-alive: сколько простаивающих соединений держать открытыми и как долго (сек)
+        System.setProperty("sun.net.httpserver.maxIdleConnections",
+                System.getProperty("sun.net.httpserver.maxIdleConnections", "1000"));
+        System.setProperty("sun.net.httpserver.idleInterval",
+                System.getProperty("sun.net.httpserver.idleInterval", "30"));
+        try {
+            UserService userService = new UserService();
+            UserHttpServer server = new UserHttpServer(userService, port);
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                userService.shutdown();
+                shutdown();
+                System.out.println("Приложение завершено.");
+            }));
+            System.out.println("HTTP API доступен на порту " + server.getPort());
+        } catch (Exception e) {
+            System.err.println("Критическая ошибка: " + e.getMessage());
+            e.printStackTrace();
+            shutdown();
+        }
+    }
+
+    private static Integer parseHttpPort(String[] args) {
+        for (String arg : args) {
+            if (arg.equals(HTTP_OPTION)) {
+                return DEFAULT_HTTP_PORT;
+            }
+            if (arg.startsWith(HTTP_OPTION + "=")) {
+                return Integer.parseInt(arg.substring(HTTP_OPTION.length() + 1));
+            }
+        }
+        return null;
+    }
+
     private static void shutdown() {
         try {
             HibernateUtil.shutdown();
@@ -22,4 +71,4 @@ public class Main {
             System.err.println("Ошибка при завершении работы: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+}
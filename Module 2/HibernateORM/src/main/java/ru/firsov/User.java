@@ -8,10 +8,38 @@ import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "users")
+// запросы UserDAO разбираются и проверяются один раз при создании SessionFactory
+@NamedQuery(name = User.FIND_ALL, query = "FROM User u ORDER BY u.id")
+@NamedQuery(name = User.FIND_BY_ID, query = "FROM User u WHERE u.id = :id")
+@NamedQuery(name = User.FIND_BY_EMAIL, query = "FROM User u WHERE u.email = :email")
+@NamedQuery(name = User.FIND_BY_AGE_BETWEEN,
+        query = "FROM User u WHERE u.age BETWEEN :minAge AND :maxAge ORDER BY u.age, u.id")
+@NamedQuery(name = User.EXISTS_BY_ID, query = "SELECT count(u.id) FROM User u WHERE u.id = :id")
+@NamedQuery(name = User.COUNT, query = "SELECT count(u.id) FROM User u")
+@NamedQuery(name = User.FIND_ID_RANGE, query = "FROM User u WHERE u.id BETWEEN :from AND :to ORDER BY u.id")
+@NamedQuery(name = User.DELETE_BY_ID, query = "DELETE FROM User u WHERE u.id = :id")
+@NamedQuery(name = User.DELETE_BY_IDS, query = "DELETE FROM User u WHERE u.id IN (:ids)")
+@NamedNativeQuery(name = User.INSERT_WITH_ID,
+        query = "INSERT INTO users (id, name, email, age, created_at) VALUES (:id, :name, :email, :age, :createdAt)")
+@NamedNativeQuery(name = User.INSERT_WITH_ID_IF_ABSENT,
+        query = "INSERT INTO users (id, name, email, age, created_at) VALUES (:id, :name, :email, :age, :createdAt)"
+                + " ON CONFLICT DO NOTHING")
 @Getter
 @Setter
 @NoArgsConstructor
 public class User {
+    public static final String FIND_ALL = "User.findAll";
+    public static final String FIND_BY_ID = "User.findById";
+    public static final String FIND_BY_EMAIL = "User.findByEmail";
+    public static final String FIND_BY_AGE_BETWEEN = "User.findByAgeBetween";
+    public static final String EXISTS_BY_ID = "User.existsById";
+    public static final String COUNT = "User.count";
+    public static final String FIND_ID_RANGE = "User.findIdRange";
+    public static final String DELETE_BY_ID = "User.deleteById";
+    public static final String DELETE_BY_IDS = "User.deleteByIds";
+    public static final String INSERT_WITH_ID = "User.insertWithId";
+    public static final String INSERT_WITH_ID_IF_ABSENT = "User.insertWithIdIfAbsent";
+
     @Id  // Первичный ключ
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
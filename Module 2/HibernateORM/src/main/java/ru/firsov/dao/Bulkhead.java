@@ -0,0 +1,73 @@
+package ru.firsov.dao;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограничитель одновременных обращений к базе данных.
+ * Размер совпадает с пулом соединений: запросы сверх лимита ждут не дольше
+ * maxWait (и не дольше дедлайна операции), после чего отклоняются,
+ * а не выстраиваются в бесконечную очередь за пулом.
+ */
+public class Bulkhead {
+
+    private static final Logger logger = LogManager.getLogger(Bulkhead.class);
+    private final Semaphore permits;
+    private final int maxConcurrent;
+    private final Duration maxWait;
+    private final LongAdder rejected = new LongAdder();
+
+    public Bulkhead(int maxConcurrent, Duration maxWait) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("Лимит одновременных запросов должен быть положительным");
+        }
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.maxConcurrent = maxConcurrent;
+        this.maxWait = maxWait;
+    }
+
+    public Permit enter(Deadline deadline) {
+        long waitMillis = Math.min(maxWait.toMillis(), deadline.remainingMillis());
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UserDAO.OverloadedException(deadline.getOperation(), e);
+        }
+        if (!acquired) {
+            rejected.increment();
+            logger.warn("Запрос {} отклонен: занято {} из {} слотов",
+                    deadline.getOperation(), getInFlight(), maxConcurrent);
+            throw new UserDAO.OverloadedException(deadline.getOperation());
+        }
+        return permits::release;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getInFlight() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public BulkheadStats getStats() {
+        return new BulkheadStats(getInFlight(), maxConcurrent, getRejectedCount());
+    }
+
+    @FunctionalInterface
+    public interface Permit extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
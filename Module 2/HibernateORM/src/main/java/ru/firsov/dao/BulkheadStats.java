@@ -0,0 +1,17 @@
+package ru.firsov.dao;
+
+/**
+ * Снимок счетчиков bulkhead. Для шардированного DAO - сумма по всем шардам.
+ */
+public record BulkheadStats(int inFlight, int maxConcurrent, long rejected) {
+
+    public static BulkheadStats empty() {
+        return new BulkheadStats(0, 0, 0);
+    }
+
+    public BulkheadStats plus(BulkheadStats other) {
+        return new BulkheadStats(inFlight + other.inFlight,
+                maxConcurrent + other.maxConcurrent,
+                rejected + other.rejected);
+    }
+}
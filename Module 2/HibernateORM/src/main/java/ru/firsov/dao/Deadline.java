@@ -0,0 +1,47 @@
+package ru.firsov.dao;
+
+import java.time.Duration;
+
+/**
+ * Крайний срок выполнения одной операции DAO.
+ * Отсчитывается с момента вызова метода и делится между ожиданием
+ * в очереди bulkhead и временем выполнения SQL.
+ */
+public final class Deadline {
+
+    private final String operation;
+    private final long expiresAtNanos;
+
+    private Deadline(String operation, long expiresAtNanos) {
+        this.operation = operation;
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    public static Deadline after(String operation, Duration budget) {
+        return new Deadline(operation, System.nanoTime() + budget.toNanos());
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long remainingMillis() {
+        return Math.max(0, (expiresAtNanos - System.nanoTime()) / 1_000_000);
+    }
+
+    public boolean isExpired() {
+        return expiresAtNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Остаток времени в секундах для JDBC (Statement.setQueryTimeout принимает только секунды).
+     * Округляется вверх, чтобы не превратить остаток меньше секунды в 0, т.е. "без таймаута".
+     */
+    public int remainingSeconds() {
+        if (isExpired()) {
+            throw new UserDAO.DeadlineExceededException(operation);
+        }
+        long millis = Math.max(1, remainingMillis());
+        return (int) Math.min(Integer.MAX_VALUE, (millis + 999) / 1000);
+    }
+}
@@ -0,0 +1,478 @@
+package ru.firsov.dao;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.firsov.User;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * UserDAO без базы данных: для кешей, тестов и бенчмарков.
+ * Записи лежат в полосах (stripes) с примитивными long-ключами, каждая под своим
+ * ReadWriteLock. Индекс email -> ID в ConcurrentHashMap обеспечивает ту же
+ * уникальность email, что и ограничение unique в таблице users. Возраст и дата
+ * создания индексируются в отсортированных ConcurrentSkipListSet для выборок по диапазону.
+ * Наружу отдаются копии User, как detached-сущности из Hibernate.
+ */
+public class InMemoryUserDAO extends UserDAO {
+
+    private static final Logger logger = LogManager.getLogger(InMemoryUserDAO.class);
+    private static final int STRIPES = 64;
+    private static final int MAX_NAME_LENGTH = 100;
+    private static final int MAX_EMAIL_LENGTH = 150;
+    private static final int SNAPSHOT_MAGIC = 0x55534552;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int NO_AGE = -1;
+    // id, секунды и наносекунды created_at, age, длины name и email
+    private static final int MIN_RECORD_BYTES = 8 + 8 + 4 + 4 + 4 + 4;
+
+    private final LongRecordMap<UserRecord>[] stripes;
+    private final ReentrantReadWriteLock[] locks;
+    private final ConcurrentHashMap<String, Long> emailIndex;
+    private final ConcurrentSkipListSet<IndexEntry> ageIndex = new ConcurrentSkipListSet<>();
+    private final ConcurrentSkipListSet<IndexEntry> createdAtIndex = new ConcurrentSkipListSet<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public InMemoryUserDAO() {
+        this(1024);
+    }
+
+    @SuppressWarnings("unchecked")
+    public InMemoryUserDAO(int expectedSize) {
+        super(OperationLimits.defaults());
+        this.stripes = new LongRecordMap[STRIPES];
+        this.locks = new ReentrantReadWriteLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new LongRecordMap<>(expectedSize / STRIPES);
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        this.emailIndex = new ConcurrentHashMap<>(Math.max(16, expectedSize));
+        logger.info("InMemoryUserDAO инициализирован");
+    }
+
+    @Override
+    public User save(User user) {
+        logger.debug("Начало сохранения пользователя: {}",
+                () -> user != null ? user.getEmail() : "null");
+        if (user == null) {
+            throw new DataAccessException("Не удалось сохранить пользователя: передан null");
+        }
+        if (user.getId() != null) {
+            throw new DataAccessException("Не удалось сохранить пользователя: ID уже назначен " + user.getId());
+        }
+        checkColumns(user);
+        long id = sequence.incrementAndGet();
+        claimEmail(user.getEmail(), id);
+        UserRecord record = new UserRecord(id, user.getName(), user.getEmail(),
+                user.getAge(), LocalDateTime.now());
+        store(record);
+        user.setId(id);
+        user.setCreatedAt(record.createdAt());
+        logger.info("Пользователь успешно сохранен: ID={}, Email={}", id, user.getEmail());
+        return user;
+    }
+
+    @Override
+    public Optional<User> findById(Long id) {
+        logger.debug("Поиск пользователя по ID: {}", id);
+        if (id == null || id <= 0) {
+            logger.warn("Передан некорректный ID: {}", id);
+            return Optional.empty();
+        }
+        return Optional.ofNullable(load(id)).map(UserRecord::toUser);
+    }
+
+    @Override
+    public List<User> findAll() {
+        logger.debug("Получение всех пользователей");
+        List<UserRecord> records = collectAll();
+        records.sort(Comparator.comparingLong(UserRecord::id));
+        List<User> users = new ArrayList<>(records.size());
+        for (UserRecord record : records) {
+            users.add(record.toUser());
+        }
+        logger.info("Получено {} пользователей из памяти", users.size());
+        return users;
+    }
+
+    @Override
+    public User update(User user) {
+        logger.debug("Начало обновления пользователя: ID={}",
+                () -> user != null ? user.getId() : "null");
+        if (user == null) {
+            throw new DataAccessException("Не удалось обновить пользователя: передан null");
+        }
+        checkColumns(user);
+        if (user.getCreatedAt() == null) {
+            throw new DataAccessException("Не удалось обновить пользователя: created_at не может быть null");
+        }
+        // как merge в Hibernate: новая сущность вставляется, а переданный объект не меняется
+        if (user.getId() == null || load(user.getId()) == null) {
+            User copy = new User();
+            copy.setName(user.getName());
+            copy.setEmail(user.getEmail());
+            copy.setAge(user.getAge());
+            return save(copy);
+        }
+        long id = user.getId();
+        UserRecord updated = new UserRecord(id, user.getName(), user.getEmail(), user.getAge(), user.getCreatedAt());
+        UserRecord previous;
+        ReentrantReadWriteLock lock = lockFor(id);
+        lock.writeLock().lock();
+        try {
+            previous = stripeFor(id).get(id);
+            if (previous == null) {
+                throw new DataAccessException("Пользователь ID=" + id + " удален во время обновления");
+            }
+            if (!previous.email().equals(updated.email())) {
+                claimEmail(updated.email(), id);
+            }
+            stripeFor(id).put(id, updated);
+            if (!previous.email().equals(updated.email())) {
+                emailIndex.remove(previous.email(), id);
+            }
+            removeFromIndexes(previous);
+            addToIndexes(updated);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.info("Пользователь успешно обновлен: ID={}, Email={}", id, updated.email());
+        return updated.toUser();
+    }
+
+    @Override
+    public void delete(Long id) {
+        logger.debug("Начало удаления пользователя: ID={}", id);
+        if (id == null) {
+            throw new DataAccessException("Не удалось удалить пользователя: ID не может быть null");
+        }
+        UserRecord removed;
+        ReentrantReadWriteLock lock = lockFor(id);
+        lock.writeLock().lock();
+        try {
+            removed = stripeFor(id).remove(id);
+            if (removed != null) {
+                emailIndex.remove(removed.email(), id);
+                removeFromIndexes(removed);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (removed != null) {
+            logger.info("Пользователь успешно удален: ID={}, Email={}", id, removed.email());
+        } else {
+            logger.warn("Попытка удаления несуществующего пользователя: ID={}", id);
+        }
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        if (id == null || id <= 0) {
+            return false;
+        }
+        return load(id) != null;
+    }
+
+    @Override
+    public Optional<User> findByEmail(String email) {
+        logger.debug("Поиск пользователя по email: {}", email);
+        if (email == null || email.trim().isEmpty()) {
+            logger.warn("Передан пустой email для поиска");
+            return Optional.empty();
+        }
+        Long id = emailIndex.get(email.trim().toLowerCase(Locale.ROOT));
+        if (id == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(load(id)).map(UserRecord::toUser);
+    }
+
+    @Override
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i].readLock().lock();
+            try {
+                count += stripes[i].size();
+            } finally {
+                locks[i].readLock().unlock();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public List<User> findByAgeBetween(int minAge, int maxAge) {
+        return findInIndex(ageIndex, minAge, maxAge, record -> record.age() != null ? record.age() : NO_AGE);
+    }
+
+    // записи и так в памяти, а упорядоченная копия ссылок нужна в любом случае
+    @Override
+    public void streamAll(Consumer<User> action) {
+        findAll().forEach(action);
+    }
+
+    @Override
+    public void streamByAgeBetween(int minAge, int maxAge, Consumer<User> action) {
+        findByAgeBetween(minAge, maxAge).forEach(action);
+    }
+
+    public List<User> findCreatedBetween(LocalDateTime from, LocalDateTime to) {
+        return findInIndex(createdAtIndex, epochMicros(from), epochMicros(to),
+                record -> epochMicros(record.createdAt()));
+    }
+
+    /**
+     * Сохраняет все записи в файл через MappedByteBuffer.
+     * Пишется во временный файл и атомарно переименовывается, так что
+     * при сбое остается предыдущий снимок.
+     */
+    public void snapshot(Path file) {
+        List<UserRecord> records;
+        long lastId;
+        lockAll();
+        try {
+            records = collectAll();
+            lastId = sequence.get();
+        } finally {
+            unlockAll();
+        }
+        List<byte[]> names = new ArrayList<>(records.size());
+        List<byte[]> emails = new ArrayList<>(records.size());
+        long size = 4 + 4 + 8 + 4;
+        for (UserRecord record : records) {
+            byte[] name = record.name().getBytes(StandardCharsets.UTF_8);
+            byte[] email = record.email().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            emails.add(email);
+            size += 8 + 8 + 4 + 4 + 4 + name.length + 4 + email.length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new DataAccessException("Снимок превышает 2 ГБ и не помещается в одно отображение");
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(lastId).putInt(records.size());
+                for (int i = 0; i < records.size(); i++) {
+                    UserRecord record = records.get(i);
+                    buffer.putLong(record.id());
+                    buffer.putLong(record.createdAt().toEpochSecond(ZoneOffset.UTC));
+                    buffer.putInt(record.createdAt().getNano());
+                    buffer.putInt(record.age() != null ? record.age() : NO_AGE);
+                    buffer.putInt(names.get(i).length).put(names.get(i));
+                    buffer.putInt(emails.get(i).length).put(emails.get(i));
+                }
+                buffer.force();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Снимок сохранен: {} пользователей -> {}", records.size(), file);
+        } catch (IOException e) {
+            logger.error("Ошибка сохранения снимка {}: {}", file, e.getMessage(), e);
+            throw new DataAccessException("Не удалось сохранить снимок пользователей", e);
+        }
+    }
+
+    public static InMemoryUserDAO restore(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION) {
+                throw new DataAccessException("Файл " + file + " не является снимком пользователей");
+            }
+            long lastId = buffer.getLong();
+            int count = buffer.getInt();
+            // размеры из файла проверяются до выделения памяти: поврежденный снимок не должен вызвать OutOfMemoryError
+            if (count < 0 || count > buffer.remaining() / MIN_RECORD_BYTES) {
+                throw new DataAccessException("Снимок " + file + " поврежден: некорректное число записей " + count);
+            }
+            InMemoryUserDAO dao = new InMemoryUserDAO(count);
+            for (int i = 0; i < count; i++) {
+                long id = buffer.getLong();
+                LocalDateTime createdAt = LocalDateTime.ofEpochSecond(buffer.getLong(), buffer.getInt(), ZoneOffset.UTC);
+                int age = buffer.getInt();
+                String name = readString(buffer);
+                String email = readString(buffer);
+                UserRecord record = new UserRecord(id, name, email, age != NO_AGE ? age : null, createdAt);
+                dao.claimEmail(email, id);
+                dao.store(record);
+                lastId = Math.max(lastId, id);
+            }
+            dao.sequence.set(lastId);
+            logger.info("Снимок загружен: {} пользователей из {}", count, file);
+            return dao;
+        } catch (IOException | RuntimeException e) {
+            if (e instanceof DataAccessException dataAccessException) {
+                throw dataAccessException;
+            }
+            logger.error("Ошибка загрузки снимка {}: {}", file, e.getMessage(), e);
+            throw new DataAccessException("Не удалось загрузить снимок пользователей", e);
+        }
+    }
+
+    private void claimEmail(String email, long id) {
+        Long owner = emailIndex.putIfAbsent(email, id);
+        if (owner != null && owner != id) {
+            throw new DataAccessException("Нарушено ограничение уникальности email: " + email);
+        }
+    }
+
+    private static void checkColumns(User user) {
+        if (user.getName() == null || user.getName().length() > MAX_NAME_LENGTH) {
+            throw new DataAccessException("Некорректное значение столбца name");
+        }
+        if (user.getEmail() == null || user.getEmail().length() > MAX_EMAIL_LENGTH) {
+            throw new DataAccessException("Некорректное значение столбца email");
+        }
+    }
+
+    private void store(UserRecord record) {
+        ReentrantReadWriteLock lock = lockFor(record.id());
+        lock.writeLock().lock();
+        try {
+            stripeFor(record.id()).put(record.id(), record);
+            addToIndexes(record);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private UserRecord load(long id) {
+        ReentrantReadWriteLock lock = lockFor(id);
+        lock.readLock().lock();
+        try {
+            return stripeFor(id).get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<UserRecord> collectAll() {
+        List<UserRecord> records = new ArrayList<>();
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i].readLock().lock();
+            try {
+                stripes[i].forEach(records::add);
+            } finally {
+                locks[i].readLock().unlock();
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Индексы меняются под блокировкой полосы вместе с записью, но обход skip list
+     * блокировку не берет и может застать запись уже с другим ключом (или удаленную и
+     * вставленную заново). Поэтому ключ перепроверяется по самой записи.
+     */
+    private List<User> findInIndex(ConcurrentSkipListSet<IndexEntry> index, long from, long to,
+                                   ToLongFunction<UserRecord> key) {
+        List<User> users = new ArrayList<>();
+        if (from > to) {
+            return users;
+        }
+        for (IndexEntry entry : index.subSet(new IndexEntry(from, Long.MIN_VALUE), true,
+                new IndexEntry(to, Long.MAX_VALUE), true)) {
+            UserRecord record = load(entry.id());
+            if (record != null && key.applyAsLong(record) == entry.key()) {
+                users.add(record.toUser());
+            }
+        }
+        return users;
+    }
+
+    private void addToIndexes(UserRecord record) {
+        if (record.age() != null) {
+            ageIndex.add(new IndexEntry(record.age(), record.id()));
+        }
+        createdAtIndex.add(new IndexEntry(epochMicros(record.createdAt()), record.id()));
+    }
+
+    private void removeFromIndexes(UserRecord record) {
+        if (record.age() != null) {
+            ageIndex.remove(new IndexEntry(record.age(), record.id()));
+        }
+        createdAtIndex.remove(new IndexEntry(epochMicros(record.createdAt()), record.id()));
+    }
+
+    private void lockAll() {
+        for (ReentrantReadWriteLock lock : locks) {
+            lock.readLock().lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = locks.length - 1; i >= 0; i--) {
+            locks[i].readLock().unlock();
+        }
+    }
+
+    // полоса выбирается по старшим битам хеша: младшие использует сама LongRecordMap
+    private static int stripeIndex(long id) {
+        return (LongRecordMap.mix(id) >>> 26) & (STRIPES - 1);
+    }
+
+    private LongRecordMap<UserRecord> stripeFor(long id) {
+        return stripes[stripeIndex(id)];
+    }
+
+    private ReentrantReadWriteLock lockFor(long id) {
+        return locks[stripeIndex(id)];
+    }
+
+    // микросекунды: та же точность, что у timestamp в PostgreSQL
+    private static long epochMicros(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + time.getNano() / 1_000;
+    }
+
+    private static String readString(MappedByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new DataAccessException("Снимок поврежден: некорректная длина строки " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private record UserRecord(long id, String name, String email, Integer age, LocalDateTime createdAt) {
+        User toUser() {
+            User user = new User();
+            user.setId(id);
+            user.setName(name);
+            user.setEmail(email);
+            user.setAge(age);
+            user.setCreatedAt(createdAt);
+            return user;
+        }
+    }
+
+    private record IndexEntry(long key, long id) implements Comparable<IndexEntry> {
+        @Override
+        public int compareTo(IndexEntry other) {
+            int byKey = Long.compare(key, other.key);
+            return byKey != 0 ? byKey : Long.compare(id, other.id);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ru.firsov.dao;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Настройки дедлайнов и bulkhead для UserDAO.
+ * Читаются из свойств SessionFactory (hibernate.cfg.xml), ключи вида:
+ * user_dao.deadline.find_all_ms, user_dao.bulkhead.max_concurrent и т.д.
+ */
+public class OperationLimits {
+
+    public static final String PREFIX = "user_dao.";
+    private static final long DEFAULT_DEADLINE_MS = 5000;
+    private static final long DEFAULT_MAX_WAIT_MS = 200;
+    private static final int DEFAULT_MAX_CONCURRENT = 10;
+
+    public enum Operation {
+        SAVE, FIND_BY_ID, FIND_ALL, UPDATE, DELETE, EXISTS_BY_ID, FIND_BY_EMAIL, FIND_BY_AGE, COUNT, MIGRATE, STATS;
+
+        String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final Map<Operation, Duration> deadlines;
+    private final int maxConcurrent;
+    private final Duration maxWait;
+
+    public OperationLimits(Map<Operation, Duration> deadlines, int maxConcurrent, Duration maxWait) {
+        this.deadlines = new EnumMap<>(deadlines);
+        this.maxConcurrent = maxConcurrent;
+        this.maxWait = maxWait;
+        for (Operation operation : Operation.values()) {
+            this.deadlines.putIfAbsent(operation, Duration.ofMillis(DEFAULT_DEADLINE_MS));
+        }
+    }
+
+    public static OperationLimits fromProperties(Map<String, Object> properties) {
+        long defaultDeadline = getLong(properties, PREFIX + "deadline.default_ms", DEFAULT_DEADLINE_MS);
+        Map<Operation, Duration> deadlines = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            long millis = getLong(properties, PREFIX + "deadline." + operation.key() + "_ms", defaultDeadline);
+            deadlines.put(operation, Duration.ofMillis(millis));
+        }
+        // по умолчанию bulkhead не пропускает больше запросов, чем соединений в пуле
+        int poolSize = (int) getLong(properties, "hibernate.connection.pool_size", DEFAULT_MAX_CONCURRENT);
+        int maxConcurrent = (int) getLong(properties, PREFIX + "bulkhead.max_concurrent", poolSize);
+        long maxWait = getLong(properties, PREFIX + "bulkhead.max_wait_ms", DEFAULT_MAX_WAIT_MS);
+        return new OperationLimits(deadlines, maxConcurrent, Duration.ofMillis(maxWait));
+    }
+
+    public static OperationLimits defaults() {
+        return fromProperties(Map.of());
+    }
+
+    public Deadline start(Operation operation) {
+        return Deadline.after(operation.key(), deadlines.get(operation));
+    }
+
+    public Duration getDeadline(Operation operation) {
+        return deadlines.get(operation);
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public Duration getMaxWait() {
+        return maxWait;
+    }
+
+    private static long getLong(Map<String, Object> properties, String key, long defaultValue) {
+        Object value = properties.get(key);
+        if (value == null || value.toString().isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Некорректное значение свойства " + key + ": " + value, e);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package ru.firsov.dao;
+
+/**
+ * Снимок счетчиков повторного использования запросов.
+ * planCache* и preparedStatements берутся из статистики Hibernate
+ * (hibernate.generate_statistics), server* - из pg_prepared_statements
+ * соединения, на котором выполнялся замер: pgJDBC не публикует счетчики своего кеша,
+ * поэтому повторное использование видно по числу выполнений подготовленных на сервере запросов.
+ */
+public record QueryCacheStats(boolean statisticsEnabled,
+                              long planCacheHits,
+                              long planCacheMisses,
+                              long preparedStatements,
+                              long queryExecutions,
+                              int prepareThreshold,
+                              long serverPreparedStatements,
+                              long serverPreparedExecutions) {
+
+    public static QueryCacheStats empty() {
+        return new QueryCacheStats(false, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    public QueryCacheStats plus(QueryCacheStats other) {
+        return new QueryCacheStats(statisticsEnabled || other.statisticsEnabled,
+                planCacheHits + other.planCacheHits,
+                planCacheMisses + other.planCacheMisses,
+                preparedStatements + other.preparedStatements,
+                queryExecutions + other.queryExecutions,
+                Math.max(prepareThreshold, other.prepareThreshold),
+                serverPreparedStatements + other.serverPreparedStatements,
+                serverPreparedExecutions + other.serverPreparedExecutions);
+    }
+
+    public double planCacheHitRatio() {
+        long total = planCacheHits + planCacheMisses;
+        return total == 0 ? 0 : (double) planCacheHits / total;
+    }
+}
@@ -0,0 +1,112 @@
+package ru.firsov.dao;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.firsov.HibernateUtil;
+import ru.firsov.User;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Перенос пользователей после изменения списка шардов.
+ * Для каждого шарда перебираются слоты, которыми он больше не владеет, и строки
+ * этих слотов (диапазон ID по первичному ключу) пачками копируются владельцу,
+ * после чего удаляются из источника. Копирование идемпотентно, поэтому прерванный
+ * запуск можно просто повторить.
+ *
+ * Порядок: перенести текущий список в user_dao.sharding.previous_urls, добавить URL
+ * нового шарда в конец user_dao.sharding.urls, перезапустить приложение (чтение
+ * переезжающих слотов будет падать обратно на старый шард), выполнить
+ * java ru.firsov.dao.ShardRebalancer, затем убрать previous_urls.
+ *
+ * Если email пользователя на целевом шарде уже занят другим ID, строка остается
+ * в источнике и попадает в отчет о конфликтах - такие случаи разбираются вручную.
+ */
+public class ShardRebalancer {
+
+    private static final Logger logger = LogManager.getLogger(ShardRebalancer.class);
+    private static final int BATCH_SIZE = 500;
+
+    private final ShardRouter router;
+    private final List<UserDAO> shards;
+    private long conflicts;
+
+    public ShardRebalancer(ShardedUserDAO dao) {
+        this.router = dao.getRouter();
+        this.shards = dao.getShards();
+    }
+
+    public long rebalance() {
+        long total = 0;
+        conflicts = 0;
+        for (int source = 0; source < shards.size(); source++) {
+            for (int slot = 0; slot < ShardRouter.SLOT_COUNT; slot++) {
+                int owner = router.shardOfSlot(slot);
+                if (owner != source) {
+                    total += moveSlot(slot, shards.get(source), shards.get(owner));
+                }
+            }
+            logger.info("Шард {} проверен", router.shardName(source));
+        }
+        logger.info("Ребалансировка завершена, перенесено {} пользователей, конфликтов email: {}",
+                total, conflicts);
+        return total;
+    }
+
+    public long getConflicts() {
+        return conflicts;
+    }
+
+    private long moveSlot(int slot, UserDAO source, UserDAO target) {
+        long moved = 0;
+        long from = ShardRouter.firstIdOfSlot(slot);
+        long to = ShardRouter.lastIdOfSlot(slot);
+        List<User> batch;
+        while (!(batch = source.findIdRange(from, to, BATCH_SIZE)).isEmpty()) {
+            List<Long> copied = target.copyIfAbsent(batch);
+            if (!copied.isEmpty()) {
+                source.deleteAll(copied);
+            }
+            Set<Long> copiedIds = new HashSet<>(copied);
+            for (User user : batch) {
+                if (!copiedIds.contains(user.getId())) {
+                    conflicts++;
+                    logger.error("Слот {}: email {} пользователя ID={} уже занят на целевом шарде, строка не перенесена",
+                            slot, user.getEmail(), user.getId());
+                }
+            }
+            moved += copied.size();
+            // конфликтные строки остаются в источнике, поэтому следующая пачка начинается после последнего ID
+            from = batch.get(batch.size() - 1).getId() + 1;
+        }
+        if (moved > 0) {
+            logger.info("Слот {}: перенесено {} пользователей", slot, moved);
+        }
+        return moved;
+    }
+
+    public static void main(String[] args) {
+        if (!HibernateUtil.isShardingEnabled()) {
+            System.err.println("Шардирование не настроено (user_dao.sharding.urls)");
+            return;
+        }
+        ShardedUserDAO dao = null;
+        try {
+            dao = new ShardedUserDAO(HibernateUtil.getShardSessionFactories());
+            ShardRebalancer rebalancer = new ShardRebalancer(dao);
+            long moved = rebalancer.rebalance();
+            System.out.println("Перенесено пользователей: " + moved);
+            if (rebalancer.getConflicts() > 0) {
+                System.out.println("Не перенесено из-за конфликтов email: " + rebalancer.getConflicts()
+                        + " (подробности в логе)");
+            }
+        } finally {
+            if (dao != null) {
+                dao.shutdown();
+            }
+            HibernateUtil.shutdown();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ru.firsov.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Маршрутизация пользователей по шардам.
+ * Email хешируется в один из SLOT_COUNT слотов, слоты раскладываются по шардам
+ * консистентным хешированием (кольцо с виртуальными узлами), поэтому при добавлении
+ * шарда переезжает только часть слотов. Номер слота хранится в старших битах ID:
+ * id = slot << SEQUENCE_BITS | sequence, так что findById не нуждается в email.
+ * ID укладываются в 53 бита: в JSON они уходят числами, а JavaScript и многие
+ * JSON-парсеры хранят числа как double и молча искажают целые больше 2^53.
+ */
+public class ShardRouter {
+
+    public static final int SLOT_BITS = 10;
+    public static final int SLOT_COUNT = 1 << SLOT_BITS;
+    public static final int ID_BITS = 53;
+    public static final int SEQUENCE_BITS = ID_BITS - SLOT_BITS;
+    // шаг последовательностей ID: у каждого шарда свой остаток, поэтому ID не пересекаются
+    public static final int MAX_SHARDS = 64;
+    private static final int VIRTUAL_NODES = 128;
+
+    private final List<String> shardNames;
+    private final int[] slotOwners = new int[SLOT_COUNT];
+
+    public ShardRouter(List<String> shardNames) {
+        if (shardNames.isEmpty() || shardNames.size() > MAX_SHARDS) {
+            throw new IllegalArgumentException(
+                    String.format("Количество шардов должно быть от 1 до %d", MAX_SHARDS));
+        }
+        this.shardNames = List.copyOf(shardNames);
+        TreeMap<Long, Integer> ring = new TreeMap<>();
+        for (int shard = 0; shard < shardNames.size(); shard++) {
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                ring.put(hash(shardNames.get(shard) + "#" + node), shard);
+            }
+        }
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            Map.Entry<Long, Integer> owner = ring.ceilingEntry(hash("slot-" + slot));
+            slotOwners[slot] = owner != null ? owner.getValue() : ring.firstEntry().getValue();
+        }
+    }
+
+    public int shardCount() {
+        return shardNames.size();
+    }
+
+    public String shardName(int shard) {
+        return shardNames.get(shard);
+    }
+
+    public int shardOfSlot(int slot) {
+        return slotOwners[slot];
+    }
+
+    public int shardOfEmail(String email) {
+        return shardOfSlot(slotOfEmail(email));
+    }
+
+    public int shardOfId(long id) {
+        return shardOfSlot(slotOfId(id));
+    }
+
+    public static int slotOfEmail(String email) {
+        String normalized = email.trim().toLowerCase(Locale.ROOT);
+        return (int) Long.remainderUnsigned(hash(normalized), SLOT_COUNT);
+    }
+
+    public static int slotOfId(long id) {
+        if (!isValidId(id)) {
+            throw new IllegalArgumentException("ID вне диапазона шардированных ID: " + id);
+        }
+        return (int) (id >>> SEQUENCE_BITS);
+    }
+
+    public static boolean isValidId(long id) {
+        return id > 0 && id < 1L << ID_BITS;
+    }
+
+    public static long composeId(int slot, long sequence) {
+        checkSlot(slot);
+        if (sequence <= 0 || sequence >= 1L << SEQUENCE_BITS) {
+            throw new IllegalArgumentException("Значение последовательности вне диапазона: " + sequence);
+        }
+        return (long) slot << SEQUENCE_BITS | sequence;
+    }
+
+    public static long firstIdOfSlot(int slot) {
+        checkSlot(slot);
+        return (long) slot << SEQUENCE_BITS;
+    }
+
+    public static long lastIdOfSlot(int slot) {
+        return firstIdOfSlot(slot) | ((1L << SEQUENCE_BITS) - 1);
+    }
+
+    private static void checkSlot(int slot) {
+        if (slot < 0 || slot >= SLOT_COUNT) {
+            throw new IllegalArgumentException("Номер слота вне диапазона: " + slot);
+        }
+    }
+
+    // FNV-1a с перемешиванием из MurmurHash3: стабилен между запусками JVM, в отличие от String.hashCode
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,384 @@
+package ru.firsov.dao;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.SessionFactory;
+import ru.firsov.User;
+import ru.firsov.dao.OperationLimits.Operation;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * UserDAO поверх нескольких баз PostgreSQL.
+ * Каждый шард обслуживается обычным UserDAO со своей SessionFactory, пулом и bulkhead.
+ * findById/findByEmail/update/delete идут в один шард, findAll и count опрашивают
+ * все шарды параллельно и объединяют результат. Если хотя бы один шард не ответил,
+ * операция завершается ошибкой, а не возвращает неполные данные.
+ *
+ * Во время ребалансировки задается и прежний маршрутизатор. Если новый владелец слота
+ * не нашел пользователя, чтение повторяется в прежнем; изменение и удаление пользователя,
+ * который еще не перенесен, отклоняются SlotMovingException, чтобы не разойтись с копированием.
+ */
+public class ShardedUserDAO extends UserDAO {
+
+    private static final Logger logger = LogManager.getLogger(ShardedUserDAO.class);
+    private final ShardRouter router;
+    // индекс текущего шарда для каждого шарда прежнего списка; null вне ребалансировки
+    private final ShardRouter previousRouter;
+    private final int[] previousShards;
+    private final List<UserDAO> shards;
+    private final ExecutorService scatterExecutor;
+
+    public ShardedUserDAO(Map<String, SessionFactory> sessionFactories) {
+        this(sessionFactories, List.of());
+    }
+
+    public ShardedUserDAO(Map<String, SessionFactory> sessionFactories, List<String> previousNames) {
+        this(new ShardRouter(List.copyOf(sessionFactories.keySet())),
+                previousNames.isEmpty() ? null : new ShardRouter(previousNames),
+                sessionFactories.values().stream().map(UserDAO::new).toList(),
+                OperationLimits.fromProperties(sessionFactories.values().iterator().next().getProperties()));
+    }
+
+    public ShardedUserDAO(ShardRouter router, List<UserDAO> shards, OperationLimits limits) {
+        this(router, null, shards, limits);
+    }
+
+    public ShardedUserDAO(ShardRouter router, ShardRouter previousRouter, List<UserDAO> shards,
+                          OperationLimits limits) {
+        super(limits);
+        if (router.shardCount() != shards.size()) {
+            throw new IllegalArgumentException("Количество шардов не совпадает с конфигурацией маршрутизатора");
+        }
+        this.router = router;
+        this.previousRouter = previousRouter;
+        this.previousShards = previousRouter == null ? null : mapPreviousShards(router, previousRouter);
+        this.shards = List.copyOf(shards);
+        // поток на каждый запрос к шарду: одновременность к базе ограничивают bulkhead шардов,
+        // а общий пул фиксированного размера ставил бы параллельные scatter-запросы в очередь
+        this.scatterExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            shards.get(shard).createIdSequence(shard + 1, ShardRouter.MAX_SHARDS);
+        }
+        logger.info("ShardedUserDAO инициализирован: {} шардов", shards.size());
+        if (previousRouter != null) {
+            logger.warn("Идет ребалансировка: {} -> {} шардов, чтение с откатом на прежний шард",
+                    previousRouter.shardCount(), shards.size());
+        }
+    }
+
+    static int[] mapPreviousShards(ShardRouter router, ShardRouter previousRouter) {
+        List<String> names = new ArrayList<>();
+        for (int shard = 0; shard < router.shardCount(); shard++) {
+            names.add(router.shardName(shard));
+        }
+        int[] mapping = new int[previousRouter.shardCount()];
+        for (int shard = 0; shard < mapping.length; shard++) {
+            mapping[shard] = names.indexOf(previousRouter.shardName(shard));
+            if (mapping[shard] < 0) {
+                throw new IllegalArgumentException("Прежний шард " + previousRouter.shardName(shard)
+                        + " отсутствует в текущем списке шардов");
+            }
+        }
+        return mapping;
+    }
+
+    @Override
+    public User save(User user) {
+        int slot = ShardRouter.slotOfEmail(user.getEmail());
+        UserDAO shard = shardOfSlot(slot);
+        user.setId(ShardRouter.composeId(slot, shard.nextIdSequenceValue()));
+        logger.debug("Пользователь {} направлен в шард {}", user.getEmail(), router.shardOfSlot(slot));
+        return shard.insertWithId(user);
+    }
+
+    @Override
+    public Optional<User> findById(Long id) {
+        if (id == null || !ShardRouter.isValidId(id)) {
+            logger.warn("Передан некорректный ID: {}", id);
+            return Optional.empty();
+        }
+        Optional<User> user = shardOfId(id).findById(id);
+        UserDAO previous = previousOwnerOfSlot(ShardRouter.slotOfId(id));
+        if (user.isEmpty() && previous != null) {
+            return previous.findById(id);
+        }
+        return user;
+    }
+
+    @Override
+    public List<User> findAll() {
+        List<User> users = new ArrayList<>();
+        for (List<User> part : scatter(Operation.FIND_ALL, UserDAO::findAll)) {
+            users.addAll(part);
+        }
+        users.sort(Comparator.comparing(User::getId));
+        distinctById(users);
+        logger.info("Получено {} пользователей из {} шардов", users.size(), shards.size());
+        return users;
+    }
+
+    @Override
+    public List<User> findByAgeBetween(int minAge, int maxAge) {
+        List<User> users = new ArrayList<>();
+        for (List<User> part : scatter(Operation.FIND_BY_AGE, shard -> shard.findByAgeBetween(minAge, maxAge))) {
+            users.addAll(part);
+        }
+        users.sort(Comparator.comparing(User::getAge).thenComparing(User::getId));
+        distinctById(users);
+        return users;
+    }
+
+    /**
+     * Слияние курсоров всех шардов по ID: ответ упорядочен так же, как findAll,
+     * а в памяти держится по одной текущей строке на шард.
+     */
+    @Override
+    public void streamAll(Consumer<User> action) {
+        merge(Operation.FIND_ALL, User.FIND_ALL, Map.of(), Comparator.comparing(User::getId), action);
+    }
+
+    @Override
+    public void streamByAgeBetween(int minAge, int maxAge, Consumer<User> action) {
+        merge(Operation.FIND_BY_AGE, User.FIND_BY_AGE_BETWEEN, Map.of("minAge", minAge, "maxAge", maxAge),
+                Comparator.comparing(User::getAge).thenComparing(User::getId), action);
+    }
+
+    /**
+     * Во время ребалансировки пользователь может ненадолго оказаться в двух шардах
+     * (скопирован, но еще не удален из источника). Сумма count в этот момент может
+     * быть завышена на размер переносимой пачки.
+     */
+    @Override
+    public long count() {
+        long total = 0;
+        for (Long count : scatter(Operation.COUNT, UserDAO::count)) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Если новый email попадает в другой слот, пользователь переносится туда
+     * и получает новый ID: номер слота зашит в ID.
+     * Пользователь без ID вставляется как новый, так же как merge в UserDAO.
+     */
+    @Override
+    public User update(User user) {
+        if (user == null) {
+            throw new DataAccessException("Не удалось обновить пользователя: передан null");
+        }
+        if (user.getId() == null || !ShardRouter.isValidId(user.getId())) {
+            logger.warn("Обновление пользователя без корректного ID={}, сохраняется как новый", user.getId());
+            User copy = copyOf(user);
+            copy.setCreatedAt(null);
+            return save(copy);
+        }
+        long oldId = user.getId();
+        int oldSlot = ShardRouter.slotOfId(oldId);
+        int newSlot = ShardRouter.slotOfEmail(user.getEmail());
+        rejectIfNotMoved(oldId);
+        if (oldSlot == newSlot) {
+            return shardOfSlot(oldSlot).update(user);
+        }
+        UserDAO source = shardOfSlot(oldSlot);
+        UserDAO target = shardOfSlot(newSlot);
+        User moved = copyOf(user);
+        moved.setId(ShardRouter.composeId(newSlot, target.nextIdSequenceValue()));
+        logger.warn("Email пользователя ID={} сменил слот {} -> {}, новый ID={}",
+                oldId, oldSlot, newSlot, moved.getId());
+        if (source == target) {
+            return target.replace(oldId, moved);
+        }
+        // сначала вставка: при сбое между шагами пользователь задвоится, но не пропадет
+        target.insertWithId(moved);
+        source.delete(oldId);
+        return moved;
+    }
+
+    @Override
+    public void delete(Long id) {
+        if (id == null || !ShardRouter.isValidId(id)) {
+            logger.warn("Попытка удаления по некорректному ID: {}", id);
+            return;
+        }
+        rejectIfNotMoved(id);
+        shardOfId(id).delete(id);
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        if (id == null || !ShardRouter.isValidId(id)) {
+            return false;
+        }
+        if (shardOfId(id).existsById(id)) {
+            return true;
+        }
+        UserDAO previous = previousOwnerOfSlot(ShardRouter.slotOfId(id));
+        return previous != null && previous.existsById(id);
+    }
+
+    @Override
+    public Optional<User> findByEmail(String email) {
+        if (email == null || email.trim().isEmpty()) {
+            logger.warn("Передан пустой email для поиска");
+            return Optional.empty();
+        }
+        int slot = ShardRouter.slotOfEmail(email);
+        Optional<User> user = shardOfSlot(slot).findByEmail(email);
+        UserDAO previous = previousOwnerOfSlot(slot);
+        if (user.isEmpty() && previous != null) {
+            return previous.findByEmail(email);
+        }
+        return user;
+    }
+
+    @Override
+    public QueryCacheStats getQueryCacheStats() {
+        QueryCacheStats total = QueryCacheStats.empty();
+        for (UserDAO shard : shards) {
+            total = total.plus(shard.getQueryCacheStats());
+        }
+        return total;
+    }
+
+    @Override
+    public BulkheadStats getBulkheadStats() {
+        BulkheadStats total = BulkheadStats.empty();
+        for (UserDAO shard : shards) {
+            total = total.plus(shard.getBulkheadStats());
+        }
+        return total;
+    }
+
+    @Override
+    public void shutdown() {
+        scatterExecutor.close();
+    }
+
+    ShardRouter getRouter() {
+        return router;
+    }
+
+    List<UserDAO> getShards() {
+        return shards;
+    }
+
+    private UserDAO shardOfId(long id) {
+        return shardOfSlot(ShardRouter.slotOfId(id));
+    }
+
+    private UserDAO shardOfSlot(int slot) {
+        return shards.get(router.shardOfSlot(slot));
+    }
+
+    // прежний владелец слота, если слот сейчас переезжает, иначе null
+    private UserDAO previousOwnerOfSlot(int slot) {
+        if (previousRouter == null) {
+            return null;
+        }
+        int previous = previousShards[previousRouter.shardOfSlot(slot)];
+        return previous == router.shardOfSlot(slot) ? null : shards.get(previous);
+    }
+
+    private void rejectIfNotMoved(long id) {
+        UserDAO previous = previousOwnerOfSlot(ShardRouter.slotOfId(id));
+        if (previous != null && previous.existsById(id)) {
+            logger.warn("Изменение пользователя ID={} отклонено: слот {} еще переносится",
+                    id, ShardRouter.slotOfId(id));
+            throw new SlotMovingException(id);
+        }
+    }
+
+    private void merge(Operation operation, String queryName, Map<String, Object> parameters,
+                       Comparator<User> order, Consumer<User> action) {
+        Deadline deadline = getLimits().start(operation);
+        List<UserCursor> cursors = new ArrayList<>(shards.size());
+        try {
+            PriorityQueue<UserCursor> heads = new PriorityQueue<>(Comparator.comparing(UserCursor::current, order));
+            for (UserDAO shard : shards) {
+                UserCursor cursor = shard.openCursor(deadline, queryName, parameters);
+                cursors.add(cursor);
+                if (cursor.next()) {
+                    heads.add(cursor);
+                }
+            }
+            Long lastId = null;
+            while (!heads.isEmpty()) {
+                UserCursor cursor = heads.poll();
+                User user = cursor.current();
+                // скопированная ребалансировкой, но еще не удаленная строка приходит из двух шардов подряд
+                if (!user.getId().equals(lastId)) {
+                    action.accept(user);
+                    lastId = user.getId();
+                }
+                if (cursor.next()) {
+                    heads.add(cursor);
+                }
+            }
+        } finally {
+            for (UserCursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+
+    private static void distinctById(List<User> users) {
+        Set<Long> seen = new HashSet<>();
+        users.removeIf(user -> !seen.add(user.getId()));
+    }
+
+    private <T> List<T> scatter(Operation operation, Function<UserDAO, T> call) {
+        Deadline deadline = getLimits().start(operation);
+        List<Future<T>> futures = new ArrayList<>(shards.size());
+        for (UserDAO shard : shards) {
+            futures.add(scatterExecutor.submit((Callable<T>) () -> call.apply(shard)));
+        }
+        List<T> results = new ArrayList<>(shards.size());
+        try {
+            for (int shard = 0; shard < futures.size(); shard++) {
+                results.add(futures.get(shard).get(deadline.remainingMillis(), TimeUnit.MILLISECONDS));
+            }
+            return results;
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException(deadline.getOperation(), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DataAccessException dataAccessException) {
+                throw dataAccessException;
+            }
+            throw new DataAccessException("Ошибка запроса к шарду", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataAccessException("Ожидание ответа шардов прервано", e);
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static User copyOf(User user) {
+        User copy = new User();
+        copy.setName(user.getName());
+        copy.setEmail(user.getEmail());
+        copy.setAge(user.getAge());
+        copy.setCreatedAt(user.getCreatedAt());
+        return copy;
+    }
+}
@@ -0,0 +1,322 @@
+package ru.firsov.dao;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.boot.registry.selector.spi.StrategySelector;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.ServiceRegistryAwareService;
+import org.hibernate.service.spi.ServiceRegistryImplementor;
+import org.hibernate.service.spi.Stoppable;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Обертка над пулом соединений, которая замеряет время каждого SQL-запроса.
+ * Сам пул задается настройкой user_dao.slow_query.delegate_provider (класс или короткое
+ * имя, например hikari); по умолчанию встроенный пул Hibernate.
+ * Connection и Statement оборачиваются в прокси: execute* засекается и передается
+ * в SlowQueryMonitor. Значения параметров запоминаются только для запросов, которые уже
+ * были медленными, чтобы снять по ним план. План снимается на отдельном соединении,
+ * не занимая слот пула.
+ *
+ * EXPLAIN ANALYZE выполняет запрос по-настоящему, а откат транзакции не возвращает
+ * значения последовательностей и не отменяет блокировки, взятые до отката. Поэтому
+ * ANALYZE применяется только к SELECT без побочных эффектов (без nextval, FOR UPDATE,
+ * изменяющих CTE и т.п.), а для INSERT/UPDATE/DELETE снимается план без выполнения.
+ * Соединение для EXPLAIN работает с коротким lock_timeout: запрос, который был медленным
+ * из-за блокировок, не встанет в ту же очередь еще раз.
+ *
+ * Подключение: hibernate.connection.provider_class = ru.firsov.dao.SlowQueryConnectionProvider
+ */
+public class SlowQueryConnectionProvider
+        implements ConnectionProvider, Configurable, Stoppable, ServiceRegistryAwareService {
+
+    private static final Logger logger = LogManager.getLogger(SlowQueryConnectionProvider.class);
+    private static final String PREFIX = OperationLimits.PREFIX + "slow_query.";
+    private static final String DEFAULT_DELEGATE =
+            "org.hibernate.engine.jdbc.connections.internal.DriverManagerConnectionProviderImpl";
+    private static final int EXPLAIN_TIMEOUT_SECONDS = 5;
+    private static final String EXPLAIN_LOCK_TIMEOUT = "100ms";
+    // признаки запроса, который что-то меняет или блокирует даже внутри SELECT/WITH
+    private static final Pattern SIDE_EFFECTS = Pattern.compile(
+            "\\b(nextval|setval|insert|update|delete|merge|for\\s+share|for\\s+key\\s+share|pg_advisory\\w*)\\b");
+
+    private static final Object[] NO_PARAMETERS = new Object[0];
+
+    private final SlowQueryMonitor monitor = SlowQueryMonitor.getInstance();
+    private ServiceRegistryImplementor serviceRegistry;
+    private ConnectionProvider delegate;
+    private String url;
+    private final Properties explainProperties = new Properties();
+    private Connection explainConnection;
+
+    @Override
+    public void injectServices(ServiceRegistryImplementor serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    @Override
+    public void configure(Map<String, Object> configurationValues) {
+        String delegateName = setting(configurationValues, "delegate_provider", DEFAULT_DELEGATE);
+        delegate = serviceRegistry.requireService(StrategySelector.class)
+                .resolveStrategy(ConnectionProvider.class, delegateName);
+        if (delegate instanceof ServiceRegistryAwareService aware) {
+            aware.injectServices(serviceRegistry);
+        }
+        if (delegate instanceof Configurable configurable) {
+            configurable.configure(configurationValues);
+        }
+        this.url = (String) configurationValues.get("hibernate.connection.url");
+        copySetting(configurationValues, "hibernate.connection.username", "user");
+        copySetting(configurationValues, "hibernate.connection.password", "password");
+        monitor.configure(
+                Long.parseLong(setting(configurationValues, "threshold_ms", "200")),
+                Double.parseDouble(setting(configurationValues, "explain_sample_rate", "0.2")),
+                Integer.parseInt(setting(configurationValues, "report_size", "20")));
+        logger.info("Контроль медленных запросов для {} ({}): порог {} мс",
+                url, delegate.getClass().getSimpleName(), monitor.getThresholdMillis());
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Connection connection = delegate.getConnection();
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnectionHandler(connection));
+    }
+
+    @Override
+    public void closeConnection(Connection connection) throws SQLException {
+        if (Proxy.isProxyClass(connection.getClass())
+                && Proxy.getInvocationHandler(connection) instanceof ConnectionHandler handler) {
+            connection = handler.target;
+        }
+        delegate.closeConnection(connection);
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return delegate.supportsAggressiveRelease();
+    }
+
+    @Override
+    public boolean isUnwrappableAs(Class<?> unwrapType) {
+        return unwrapType.isInstance(this) || delegate.isUnwrappableAs(unwrapType);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> unwrapType) {
+        if (unwrapType.isInstance(this)) {
+            return unwrapType.cast(this);
+        }
+        if (delegate.isUnwrappableAs(unwrapType)) {
+            return delegate.unwrap(unwrapType);
+        }
+        throw new UnknownUnwrapTypeException(unwrapType);
+    }
+
+    @Override
+    public void stop() {
+        synchronized (this) {
+            closeExplainConnection();
+        }
+        if (delegate instanceof Stoppable stoppable) {
+            stoppable.stop();
+        }
+    }
+
+    private synchronized String explain(String sql, Object[] parameters) throws SQLException {
+        if (explainConnection == null || explainConnection.isClosed()) {
+            explainConnection = DriverManager.getConnection(url, explainProperties);
+            explainConnection.setAutoCommit(false);
+            try (Statement settings = explainConnection.createStatement()) {
+                settings.execute("SET lock_timeout = '" + EXPLAIN_LOCK_TIMEOUT + "'");
+                settings.execute("SET statement_timeout = '" + EXPLAIN_TIMEOUT_SECONDS + "s'");
+            }
+            // SET внутри транзакции отменился бы откатом после первого EXPLAIN
+            explainConnection.commit();
+        }
+        String explain = analyzable(sql) ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ";
+        try (PreparedStatement statement = explainConnection.prepareStatement(explain + sql)) {
+            statement.setQueryTimeout(EXPLAIN_TIMEOUT_SECONDS);
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            StringBuilder plan = new StringBuilder();
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    plan.append(rs.getString(1)).append('\n');
+                }
+            }
+            return plan.toString();
+        } catch (SQLException e) {
+            closeExplainConnection();
+            throw e;
+        } finally {
+            if (explainConnection != null) {
+                explainConnection.rollback();
+            }
+        }
+    }
+
+    private void closeExplainConnection() {
+        if (explainConnection != null) {
+            try {
+                explainConnection.close();
+            } catch (SQLException e) {
+                logger.debug("Ошибка закрытия соединения для EXPLAIN: {}", e.getMessage());
+            }
+            explainConnection = null;
+        }
+    }
+
+    // EXPLAIN применим только к DML; DDL и служебные команды только замеряются
+    private static boolean explainable(String sql) {
+        String head = sql.stripLeading().toLowerCase(Locale.ROOT);
+        return head.startsWith("select") || head.startsWith("with") || head.startsWith("insert")
+                || head.startsWith("update") || head.startsWith("delete");
+    }
+
+    // проверка грубая и с запасом: лишний план без ANALYZE безопаснее, чем повторная запись
+    static boolean analyzable(String sql) {
+        String text = sql.stripLeading().toLowerCase(Locale.ROOT);
+        return (text.startsWith("select") || text.startsWith("with"))
+                && !SIDE_EFFECTS.matcher(text).find();
+    }
+
+    private static String setting(Map<String, Object> values, String key, String defaultValue) {
+        Object value = values.get(PREFIX + key);
+        return value != null && !value.toString().isBlank() ? value.toString().trim() : defaultValue;
+    }
+
+    private void copySetting(Map<String, Object> values, String key, String property) {
+        Object value = values.get(key);
+        if (value != null) {
+            explainProperties.setProperty(property, value.toString());
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private class ConnectionHandler implements InvocationHandler {
+        private final Connection target;
+
+        ConnectionHandler(Connection target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("equals")) {
+                return proxy == args[0];
+            }
+            Object result = SlowQueryConnectionProvider.invoke(target, method, args);
+            if (result instanceof PreparedStatement statement && method.getName().equals("prepareStatement")) {
+                return wrap(statement, PreparedStatement.class, (String) args[0]);
+            }
+            if (result instanceof Statement statement && method.getName().equals("createStatement")) {
+                return wrap(statement, Statement.class, null);
+            }
+            return result;
+        }
+
+        private Object wrap(Statement statement, Class<?> type, String sql) {
+            return Proxy.newProxyInstance(SlowQueryConnectionProvider.class.getClassLoader(),
+                    new Class<?>[]{type}, new StatementHandler(statement, sql));
+        }
+    }
+
+    private class StatementHandler implements InvocationHandler {
+        private final Statement target;
+        private final String preparedSql;
+        // null, пока запрос ни разу не был медленным: обычный setX только проксируется
+        private Object[] parameters;
+        private int parameterCount;
+
+        StatementHandler(Statement target, String preparedSql) {
+            this.target = target;
+            this.preparedSql = preparedSql;
+            if (preparedSql != null && monitor.wasSlow(preparedSql)) {
+                this.parameters = new Object[8];
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                return execute(method, args);
+            }
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (parameters != null) {
+                if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer index) {
+                    rememberParameter(index, name.equals("setNull") ? null : args[1]);
+                } else if (name.equals("clearParameters")) {
+                    Arrays.fill(parameters, null);
+                    parameterCount = 0;
+                }
+            }
+            return SlowQueryConnectionProvider.invoke(target, method, args);
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            String sql = args != null && args.length > 0 && args[0] instanceof String text ? text : preparedSql;
+            long started = System.nanoTime();
+            try {
+                return SlowQueryConnectionProvider.invoke(target, method, args);
+            } finally {
+                if (sql != null) {
+                    long elapsed = System.nanoTime() - started;
+                    if (monitor.record(sql, elapsed) && explainable(sql)) {
+                        requestPlan(sql, elapsed);
+                    }
+                }
+            }
+        }
+
+        private void requestPlan(String sql, long elapsed) {
+            Object[] bound;
+            if (!sql.equals(preparedSql) || sql.indexOf('?') < 0) {
+                bound = NO_PARAMETERS;
+            } else if (parameters != null) {
+                bound = Arrays.copyOf(parameters, parameterCount);
+            } else {
+                // значения параметров этого выполнения неизвестны; начнем запоминать их
+                // со следующего PreparedStatement для этого запроса
+                return;
+            }
+            monitor.requestPlan(sql, elapsed, () -> explain(sql, bound));
+        }
+
+        private void rememberParameter(int index, Object value) {
+            if (index > parameters.length) {
+                parameters = Arrays.copyOf(parameters, Math.max(index, parameters.length * 2));
+            }
+            parameters[index - 1] = value;
+            parameterCount = Math.max(parameterCount, index);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package ru.firsov.dao;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Статистика выполнения SQL, собранная SlowQueryConnectionProvider.
+ * Запросы группируются по "форме" (литералы и списки параметров IN заменены на ?),
+ * запросы дольше порога помечаются как медленные, и для части из них в фоне
+ * снимается план: EXPLAIN (ANALYZE, BUFFERS) для чтения, EXPLAIN без выполнения для изменений.
+ * Последние планы хранятся в скользящем отчете.
+ * Один экземпляр на приложение: при шардировании сюда пишут провайдеры всех шардов.
+ */
+public class SlowQueryMonitor {
+
+    private static final Logger logger = LogManager.getLogger(SlowQueryMonitor.class);
+    private static final SlowQueryMonitor INSTANCE = new SlowQueryMonitor();
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    // Hibernate выполняет немного различных строк SQL; строки с литералами сверх лимита
+    // разбираются на каждом выполнении, но не раздувают кеш
+    private static final int MAX_CACHED_SQL = 1024;
+
+    private final Map<String, StatementStats> statements = new ConcurrentHashMap<>();
+    private final Map<String, StatementStats> statsBySql = new ConcurrentHashMap<>();
+    private final Deque<CapturedPlan> plans = new ConcurrentLinkedDeque<>();
+    // один фоновый поток и короткая очередь: при всплеске медленных запросов лишние EXPLAIN отбрасываются
+    private final ThreadPoolExecutor explainExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(16), runnable -> {
+                Thread thread = new Thread(runnable, "slow-query-explain");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+    private volatile long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(200);
+    private volatile double explainSampleRate = 0.2;
+    private volatile int reportSize = 20;
+
+    public static SlowQueryMonitor getInstance() {
+        return INSTANCE;
+    }
+
+    public void configure(long thresholdMillis, double explainSampleRate, int reportSize) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.explainSampleRate = explainSampleRate;
+        this.reportSize = reportSize;
+    }
+
+    public long getThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+    }
+
+    /**
+     * Учитывает выполнение запроса. На горячем пути только поиск по строке SQL и счетчики;
+     * форма и лог вычисляются для медленных запросов.
+     * Возвращает true, если для этого выполнения нужно снять план (см. requestPlan).
+     */
+    boolean record(String sql, long elapsedNanos) {
+        StatementStats stats = statsFor(sql);
+        boolean slow = elapsedNanos >= thresholdNanos;
+        stats.record(elapsedNanos, slow);
+        if (!slow) {
+            return false;
+        }
+        logger.warn("Медленный запрос ({} мс): {}", TimeUnit.NANOSECONDS.toMillis(elapsedNanos), stats.shape);
+        return ThreadLocalRandom.current().nextDouble() < explainSampleRate;
+    }
+
+    /**
+     * Был ли запрос уже медленным. Провайдер запоминает значения параметров только
+     * для таких запросов, поэтому план снимается начиная со второго медленного выполнения.
+     */
+    boolean wasSlow(String sql) {
+        StatementStats stats = statsBySql.get(sql);
+        return stats != null && stats.slow;
+    }
+
+    void requestPlan(String sql, long elapsedNanos, Explainer explainer) {
+        String shape = statsFor(sql).shape;
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        explainExecutor.execute(() -> capturePlan(shape, elapsedMillis, explainer));
+    }
+
+    public List<StatementSummary> topStatements(int limit) {
+        List<StatementSummary> summaries = new ArrayList<>(statements.size());
+        statements.values().forEach(stats -> summaries.add(stats.summary()));
+        summaries.sort(Comparator.comparingDouble(StatementSummary::totalMillis).reversed());
+        return summaries.subList(0, Math.min(limit, summaries.size()));
+    }
+
+    public List<CapturedPlan> recentPlans() {
+        return List.copyOf(plans);
+    }
+
+    public void reset() {
+        statsBySql.clear();
+        statements.clear();
+        plans.clear();
+    }
+
+    private StatementStats statsFor(String sql) {
+        StatementStats stats = statsBySql.get(sql);
+        if (stats != null) {
+            return stats;
+        }
+        String shape = shapeOf(sql);
+        stats = statements.computeIfAbsent(shape, StatementStats::new);
+        if (statsBySql.size() < MAX_CACHED_SQL) {
+            statsBySql.putIfAbsent(sql, stats);
+        }
+        return stats;
+    }
+
+    static String shapeOf(String sql) {
+        String shape = WHITESPACE.matcher(sql).replaceAll(" ").trim();
+        shape = STRING_LITERAL.matcher(shape).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        return PARAMETER_LIST.matcher(shape).replaceAll("(?...)");
+    }
+
+    private void capturePlan(String shape, long elapsedMillis, Explainer explainer) {
+        String plan;
+        try {
+            plan = explainer.explain();
+        } catch (Exception e) {
+            logger.debug("Не удалось снять план запроса {}: {}", shape, e.getMessage());
+            plan = "EXPLAIN не выполнен: " + e.getMessage();
+        }
+        plans.addFirst(new CapturedPlan(LocalDateTime.now(), shape, elapsedMillis, plan));
+        while (plans.size() > reportSize) {
+            plans.pollLast();
+        }
+    }
+
+    @FunctionalInterface
+    interface Explainer {
+        String explain() throws Exception;
+    }
+
+    public record StatementSummary(String shape, long count, long slowCount, double totalMillis,
+                                   double avgMillis, double maxMillis) {
+    }
+
+    public record CapturedPlan(LocalDateTime capturedAt, String shape, long elapsedMillis, String plan) {
+    }
+
+    private static class StatementStats {
+        private final String shape;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder slowCount = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private volatile boolean slow;
+
+        StatementStats(String shape) {
+            this.shape = shape;
+        }
+
+        void record(long elapsedNanos, boolean slow) {
+            count.increment();
+            if (slow) {
+                slowCount.increment();
+                this.slow = true;
+            }
+            totalNanos.add(elapsedNanos);
+            maxNanos.accumulateAndGet(elapsedNanos, Math::max);
+        }
+
+        StatementSummary summary() {
+            long executions = count.sum();
+            double totalMillis = totalNanos.sum() / 1e6;
+            return new StatementSummary(shape, executions, slowCount.sum(), totalMillis,
+                    executions == 0 ? 0 : totalMillis / executions, maxNanos.get() / 1e6);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package ru.firsov.dao;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.ScrollableResults;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import ru.firsov.User;
+
+/**
+ * Открытый курсор по результату запроса пользователей.
+ * Пока курсор не закрыт, он держит слот bulkhead, соединение и транзакцию:
+ * PostgreSQL отдает строки порциями по fetch size только внутри транзакции.
+ * Каждая следующая строка проверяет дедлайн операции, так что медленный
+ * потребитель не удержит соединение дольше отведенного времени.
+ */
+class UserCursor implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(UserCursor.class);
+    private final Bulkhead.Permit permit;
+    private final StatelessSession session;
+    private final Transaction transaction;
+    private final ScrollableResults<User> results;
+    private final Deadline deadline;
+    private User current;
+
+    UserCursor(Bulkhead.Permit permit, StatelessSession session, Transaction transaction,
+               ScrollableResults<User> results, Deadline deadline) {
+        this.permit = permit;
+        this.session = session;
+        this.transaction = transaction;
+        this.results = results;
+        this.deadline = deadline;
+    }
+
+    boolean next() {
+        if (deadline.isExpired()) {
+            throw new UserDAO.DeadlineExceededException(deadline.getOperation());
+        }
+        try {
+            current = results.next() ? results.get() : null;
+            return current != null;
+        } catch (Exception e) {
+            logger.error("Ошибка чтения пользователей из курсора: {}", e.getMessage(), e);
+            throw UserDAO.failure("Не удалось прочитать пользователей", e, deadline);
+        }
+    }
+
+    User current() {
+        return current;
+    }
+
+    @Override
+    public void close() {
+        try {
+            results.close();
+            // курсор только читает: откат просто завершает транзакцию и закрывает портал на сервере
+            transaction.rollback();
+        } catch (Exception e) {
+            logger.warn("Ошибка закрытия курсора: {}", e.getMessage());
+        } finally {
+            try {
+                session.close();
+            } finally {
+                permit.close();
+            }
+        }
+    }
+}
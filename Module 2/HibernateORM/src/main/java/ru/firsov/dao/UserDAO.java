@@ -4,25 +4,70 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import ru.firsov.User;
 import ru.firsov.HibernateUtil;
-import jakarta.persistence.criteria.CriteriaBuilder;
-import jakarta.persistence.criteria.CriteriaQuery;
-import jakarta.persistence.criteria.Root;
+import ru.firsov.dao.OperationLimits.Operation;
+import org.hibernate.ScrollMode;
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
 import org.hibernate.query.Query;
+import org.hibernate.query.SelectionQuery;
+import org.hibernate.stat.Statistics;
+import org.postgresql.PGConnection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class UserDAO implements DAO<User, Long> {
 
     private static final Logger logger = LogManager.getLogger(UserDAO.class);
+    static final String ID_SEQUENCE = "users_shard_id_seq";
+    // строк за одно обращение к курсору при потоковой выгрузке
+    private static final int STREAM_FETCH_SIZE = 500;
+    private final SessionFactory sessionFactory;
+    private final OperationLimits limits;
+    private final Bulkhead bulkhead;
+
+    public UserDAO() {
+        this(HibernateUtil.getSessionFactory());
+    }
+
+    public UserDAO(SessionFactory sessionFactory) {
+        this(sessionFactory, OperationLimits.fromProperties(sessionFactory.getProperties()));
+    }
+
+    public UserDAO(SessionFactory sessionFactory, OperationLimits limits) {
+        this.sessionFactory = sessionFactory;
+        this.limits = limits;
+        this.bulkhead = new Bulkhead(limits.getMaxConcurrent(), limits.getMaxWait());
+        logger.info("UserDAO: до {} одновременных запросов, ожидание слота до {} мс",
+                limits.getMaxConcurrent(), limits.getMaxWait().toMillis());
+    }
+
+    // для реализаций, которые переопределяют все операции и не ходят в SessionFactory напрямую:
+    // своего bulkhead у них нет, ограничения (если есть) обеспечивают вложенные DAO
+    protected UserDAO(OperationLimits limits) {
+        this.sessionFactory = null;
+        this.limits = limits;
+        this.bulkhead = null;
+    }
+
     @Override
     public User save(User user) {
         Transaction transaction = null;
         logger.debug("Начало сохранения пользователя: {}",
                 () -> user != null ? user.getEmail() : "null");
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            transaction = session.beginTransaction();
+        Deadline deadline = limits.start(Operation.SAVE);
+        try (Bulkhead.Permit permit = bulkhead.enter(deadline);
+             Session session = sessionFactory.openSession()) {
+            transaction = beginTransaction(session, deadline);
             session.persist(user);
             transaction.commit();
             logger.info("Пользователь успешно сохранен: ID={}, Email={}",
@@ -40,7 +85,7 @@ public class UserDAO implements DAO<User, Long> {
             }
             logger.error("Ошибка сохранения пользователя: {}",
                     e.getMessage(), e);
-            throw new DataAccessException("Не удалось сохранить пользователя", e);
+            throw failure("Не удалось сохранить пользователя", e, deadline);
         }
     }
 
@@ -51,8 +96,14 @@ public class UserDAO implements DAO<User, Long> {
             logger.warn("Передан некорректный ID: {}", id);
             return Optional.empty();
         }
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            User user = session.find(User.class, id);
+        Deadline deadline = limits.start(Operation.FIND_BY_ID);
+        try (Bulkhead.Permit permit = bulkhead.enter(deadline);
+             Session session = sessionFactory.openSession()) {
+            // session.find не принимает таймаут, поэтому загрузка идет запросом с setTimeout
+            Query<User> query = session.createNamedQuery(User.FIND_BY_ID, User.class);
+            query.setParameter("id", id);
+            query.setTimeout(deadline.remainingSeconds());
+            User user = query.uniqueResult();
             if (user != null) {
                 logger.debug("Пользователь найден: ID={}, Name={}", id, user.getName());
             } else {
@@ -62,27 +113,25 @@ public class UserDAO implements DAO<User, Long> {
         } catch (Exception e) {
             logger.error("Ошибка поиска пользователя по ID={}: {}",
                     id, e.getMessage(), e);
-            throw new DataAccessException("Не удалось найти пользователя по ID", e);
+            throw failure("Не удалось найти пользователя по ID", e, deadline);
         }
     }
 
     @Override
     public List<User> findAll() {
         logger.debug("Получение всех пользователей");
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            CriteriaBuilder cb = session.getCriteriaBuilder();
-            CriteriaQuery<User> cq = cb.createQuery(User.class);
-            Root<User> root = cq.from(User.class);
-            cq.select(root);
-            cq.orderBy(cb.asc(root.get("id")));
-            Query<User> query = session.createQuery(cq);
+        Deadline deadline = limits.start(Operation.FIND_ALL);
+        try (Bulkhead.Permit permit = bulkhead.enter(deadline);
+             Session session = sessionFactory.openSession()) {
+            Query<User> query = session.createNamedQuery(User.FIND_ALL, User.class);
+            query.setTimeout(deadline.remainingSeconds());
             List<User> users = query.getResultList();
             logger.info("Получено {} пользователей из базы данных", users.size());
             return users;
         } catch (Exception e) {
             logger.error("Ошибка получения списка пользователей: {}",
                     e.getMessage(), e);
-            throw new DataAccessException("Не удалось получить список пользователей", e);
+            throw failure("Не удалось получить список пользователей", e, deadline);
         }
     }
     @Override
@@ -90,8 +139,10 @@ public class UserDAO implements DAO<User, Long> {
         Transaction transaction = null;
         logger.debug("Начало обновления пользователя: ID={}",
                 () -> user != null ? user.getId() : "null");
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            transaction = session.beginTransaction();
+        Deadline deadline = limits.start(Operation.UPDATE);
+        try (Bulkhead.Permit permit = bulkhead.enter(deadline);
+             Session session = sessionFactory.openSession()) {
+            transaction = beginTransaction(session, deadline);
             User updatedUser = session.merge(user);
             transaction.commit();
             logger.info("Пользователь успешно обновлен: ID={}, Email={}",
@@ -109,7 +160,7 @@ public class UserDAO implements DAO<User, Long> {
             logger.error("Ошибка обновления пользователя ID={}: {}",
                     user != null ? user.getId() : "null",
                     e.getMessage(), e);
-            throw new DataAccessException("Не удалось обновить пользователя", e);
+            throw failure("Не удалось обновить пользователя", e, deadline);
         }
     }
 
@@ -117,8 +168,10 @@ public class UserDAO implements DAO<User, Long> {
     public void delete(Long id) {
         Transaction transaction = null;
         logger.debug("Начало удаления пользователя: ID={}", id);
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            transaction = session.beginTransaction();
+        Deadline deadline = limits.start(Operation.DELETE);
+        try (Bulkhead.Permit permit = bulkhead.enter(deadline);
+             Session session = sessionFactory.openSession()) {
+            transaction = beginTransaction(session, deadline);
             User user = session.find(User.class, id);
 
             if (user != null) {
@@ -142,7 +195,7 @@ public class UserDAO implements DAO<User, Long> {
             }
             logger.error("Ошибка удаления пользователя ID={}: {}",
                     id, e.getMessage(), e);
-            throw new DataAccessException("Не удалось удалить пользователя", e);
+            throw failure("Не удалось удалить пользователя", e, deadline);
         }
     }
 
@@ -152,15 +205,19 @@ public class UserDAO implements DAO<User, Long> {
         if (id == null || id <= 0) {
             return false;
         }
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            User user = session.find(User.class, id);
-            boolean exists = user != null;
+        Deadline deadline = limits.start(Operation.EXISTS_BY_ID);
+        try (Bulkhead.Permit permit = bulkhead.enter(deadline);
+             Session session = sessionFactory.openSession()) {
+            Query<Long> query = session.createNamedQuery(User.EXISTS_BY_ID, Long.class);
+            query.setParameter("id", id);
+            query.setTimeout(deadline.remainingSeconds());
+            boolean exists = query.uniqueResult() > 0;
             logger.trace("Пользователь ID={} существует: {}", id, exists);
             return exists;
         } catch (Exception e) {
             logger.error("Ошибка проверки существования пользователя ID={}: {}",
                     id, e.getMessage(), e);
-            throw new DataAccessException("Не удалось проверить существование пользователя", e);
+            throw failure("Не удалось проверить существование пользователя", e, deadline);
         }
     }
 
@@ -172,10 +229,12 @@ public class UserDAO implements DAO<User, Long> {
             return Optional.empty();
         }
         String trimmedEmail = email.trim().toLowerCase();
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            String hql = "FROM User u WHERE u.email = :email";
-            Query<User> query = session.createQuery(hql, User.class);
+        Deadline deadline = limits.start(Operation.FIND_BY_EMAIL);
+        try (Bulkhead.Permit permit = bulkhead.enter(deadline);
+             Session session = sessionFactory.openSession()) {
+            Query<User> query = session.createNamedQuery(User.FIND_BY_EMAIL, User.class);
             query.setParameter("email", trimmedEmail);
+            query.setTimeout(deadline.remainingSeconds());
             User user = query.uniqueResult();
             if (user != null) {
                 logger.debug("Пользователь найден по email: {} -> ID={}",
@@ -187,10 +246,292 @@ public class UserDAO implements DAO<User, Long> {
         } catch (Exception e) {
             logger.error("Ошибка поиска пользователя по email={}: {}",
                     trimmedEmail, e.getMessage(), e);
-            throw new DataAccessException("Не удалось найти пользователя по email", e);
+            throw failure("Не удалось найти пользователя по email", e, deadline);
+        }
+    }
+
+    public List<User> findByAgeBetween(int minAge, int maxAge) {
+        logger.debug("Поиск пользователей по возрасту: {}-{}", minAge, maxAge);
+        Deadline deadline = limits.start(Operation.FIND_BY_AGE);
+        try (Bulkhead.Permit permit = bulkhead.enter(deadline);
+             Session session = sessionFactory.openSession()) {
+            Query<User> query = session.createNamedQuery(User.FIND_BY_AGE_BETWEEN, User.class);
+            query.setParameter("minAge", minAge);
+            query.setParameter("maxAge", maxAge);
+            query.setTimeout(deadline.remainingSeconds());
+            List<User> users = query.getResultList();
+            logger.debug("Найдено {} пользователей в возрасте {}-{}", users.size(), minAge, maxAge);
+            return users;
+        } catch (Exception e) {
+            logger.error("Ошибка поиска пользователей по возрасту {}-{}: {}",
+                    minAge, maxAge, e.getMessage(), e);
+            throw failure("Не удалось найти пользователей по возрасту", e, deadline);
+        }
+    }
+
+    /**
+     * Передает пользователей в action по порядку ID, не собирая весь результат в список:
+     * строки читаются из курсора порциями по STREAM_FETCH_SIZE. Дедлайн FIND_ALL
+     * ограничивает всю выгрузку вместе со временем работы action.
+     */
+    public void streamAll(Consumer<User> action) {
+        logger.debug("Потоковая выгрузка всех пользователей");
+        Deadline deadline = limits.start(Operation.FIND_ALL);
+        try (UserCursor cursor = openCursor(deadline, User.FIND_ALL, Map.of())) {
+            forEach(cursor, action);
+        }
+    }
+
+    public void streamByAgeBetween(int minAge, int maxAge, Consumer<User> action) {
+        logger.debug("Потоковая выгрузка пользователей в возрасте {}-{}", minAge, maxAge);
+        Deadline deadline = limits.start(Operation.FIND_BY_AGE);
+        try (UserCursor cursor = openCursor(deadline, User.FIND_BY_AGE_BETWEEN,
+                Map.of("minAge", minAge, "maxAge", maxAge))) {
+            forEach(cursor, action);
         }
     }
 
+    // курсор закрывает вызывающий код; при ошибке открытия все ресурсы уже освобождены
+    UserCursor openCursor(Deadline deadline, String queryName, Map<String, Object> parameters) {
+        Bulkhead.Permit permit = bulkhead.enter(deadline);
+        StatelessSession session = null;
+        Transaction transaction = null;
+        try {
+            session = sessionFactory.openStatelessSession();
+            transaction = session.beginTransaction();
+            SelectionQuery<User> query = session.createNamedSelectionQuery(queryName, User.class);
+            parameters.forEach(query::setParameter);
+            query.setFetchSize(STREAM_FETCH_SIZE);
+            query.setTimeout(deadline.remainingSeconds());
+            return new UserCursor(permit, session, transaction, query.scroll(ScrollMode.FORWARD_ONLY), deadline);
+        } catch (Exception e) {
+            try {
+                if (transaction != null) {
+                    transaction.rollback();
+                }
+                if (session != null) {
+                    session.close();
+                }
+            } catch (Exception closeEx) {
+                logger.warn("Ошибка освобождения курсора: {}", closeEx.getMessage());
+            } finally {
+                permit.close();
+            }
+            logger.error("Ошибка открытия курсора {}: {}", queryName, e.getMessage(), e);
+            throw failure("Не удалось выполнить запрос пользователей", e, deadline);
+        }
+    }
+
+    private static void forEach(UserCursor cursor, Consumer<User> action) {
+        long count = 0;
+        while (cursor.next()) {
+            action.accept(cursor.current());
+            count++;
+        }
+        logger.debug("Выгружено {} пользователей", count);
+    }
+
+    public long count() {
+        logger.debug("Подсчет пользователей");
+        Deadline deadline = limits.start(Operation.COUNT);
+        try (Bulkhead.Permit permit = bulkhead.enter(deadline);
+             Session session = sessionFactory.openSession()) {
+            Query<Long> query = session.createNamedQuery(User.COUNT, Long.class);
+            query.setTimeout(deadline.remainingSeconds());
+            long count = query.uniqueResult();
+            logger.debug("Всего пользователей: {}", count);
+            return count;
+        } catch (Exception e) {
+            logger.error("Ошибка подсчета пользователей: {}", e.getMessage(), e);
+            throw failure("Не удалось посчитать пользователей", e, deadline);
+        }
+    }
+
+    // ---- операции для шардирования: явные ID вместо IDENTITY ----
+
+    void createIdSequence(long start, int increment) {
+        inTransaction(Operation.SAVE, "Не удалось создать последовательность ID", session ->
+                session.createNativeMutationQuery(
+                        "CREATE SEQUENCE IF NOT EXISTS " + ID_SEQUENCE
+                                + " START WITH " + start + " INCREMENT BY " + increment)
+                        .executeUpdate());
+    }
+
+    long nextIdSequenceValue() {
+        return inTransaction(Operation.SAVE, "Не удалось получить следующий ID", session ->
+                session.createNativeQuery("SELECT nextval('" + ID_SEQUENCE + "')", Long.class)
+                        .getSingleResult());
+    }
+
+    User insertWithId(User user) {
+        logger.debug("Вставка пользователя с заданным ID={}", user.getId());
+        inTransaction(Operation.SAVE, "Не удалось сохранить пользователя",
+                session -> insertRow(session, user, false));
+        logger.info("Пользователь успешно сохранен: ID={}, Email={}", user.getId(), user.getEmail());
+        return user;
+    }
+
+    // смена ID в пределах одной базы: удаление и вставка в одной транзакции, иначе мешает unique(email)
+    User replace(Long oldId, User user) {
+        inTransaction(Operation.UPDATE, "Не удалось обновить пользователя", session -> {
+            session.createNamedMutationQuery(User.DELETE_BY_ID)
+                    .setParameter("id", oldId)
+                    .executeUpdate();
+            return insertRow(session, user, false);
+        });
+        logger.info("Пользователь ID={} перенесен под ID={}", oldId, user.getId());
+        return user;
+    }
+
+    List<User> findIdRange(long fromInclusive, long toInclusive, int limit) {
+        return inTransaction(Operation.MIGRATE, "Не удалось прочитать диапазон ID", session ->
+                session.createNamedQuery(User.FIND_ID_RANGE, User.class)
+                        .setParameter("from", fromInclusive)
+                        .setParameter("to", toInclusive)
+                        .setMaxResults(limit)
+                        .getResultList());
+    }
+
+    /**
+     * Копирует пользователей, пропуская конфликты по id и по email.
+     * Возвращает ID, которые после копирования есть в этой базе: вставленные сейчас
+     * или скопированные прошлым запуском. Строки, чей email уже занят другим ID, в результат не попадают.
+     */
+    List<Long> copyIfAbsent(List<User> users) {
+        return inTransaction(Operation.MIGRATE, "Не удалось скопировать пользователей", session -> {
+            List<Long> present = new ArrayList<>(users.size());
+            for (User user : users) {
+                boolean copied = insertRow(session, user, true) > 0
+                        || session.createNamedQuery(User.EXISTS_BY_ID, Long.class)
+                        .setParameter("id", user.getId())
+                        .uniqueResult() > 0;
+                if (copied) {
+                    present.add(user.getId());
+                }
+            }
+            return present;
+        });
+    }
+
+    int deleteAll(List<Long> ids) {
+        return inTransaction(Operation.MIGRATE, "Не удалось удалить пользователей", session ->
+                session.createNamedMutationQuery(User.DELETE_BY_IDS)
+                        .setParameterList("ids", ids)
+                        .executeUpdate());
+    }
+
+    private static int insertRow(Session session, User user, boolean skipExisting) {
+        if (user.getCreatedAt() == null) {
+            user.setCreatedAt(LocalDateTime.now());
+        }
+        return session.createNamedMutationQuery(skipExisting ? User.INSERT_WITH_ID_IF_ABSENT : User.INSERT_WITH_ID)
+                .setParameter("id", user.getId())
+                .setParameter("name", user.getName())
+                .setParameter("email", user.getEmail())
+                .setParameter("age", user.getAge(), Integer.class)
+                .setParameter("createdAt", user.getCreatedAt())
+                .executeUpdate();
+    }
+
+    private <T> T inTransaction(Operation operation, String errorMessage, Function<Session, T> work) {
+        Transaction transaction = null;
+        Deadline deadline = limits.start(operation);
+        try (Bulkhead.Permit permit = bulkhead.enter(deadline);
+             Session session = sessionFactory.openSession()) {
+            transaction = beginTransaction(session, deadline);
+            T result = work.apply(session);
+            transaction.commit();
+            return result;
+        } catch (Exception e) {
+            if (transaction != null) {
+                try {
+                    transaction.rollback();
+                    logger.warn("Транзакция откачена: {}", errorMessage);
+                } catch (Exception rollbackEx) {
+                    logger.error("Ошибка при откате транзакции", rollbackEx);
+                }
+            }
+            logger.error("{}: {}", errorMessage, e.getMessage(), e);
+            throw failure(errorMessage, e, deadline);
+        }
+    }
+
+    /**
+     * Статистику опрашивают /metrics и меню, чаще всего как раз во время нагрузки.
+     * Соединение берется через тот же bulkhead, что и у обычных запросов: встроенный пул
+     * Hibernate не ждет свободного соединения, а падает, и лишний запрос статистики
+     * отнял бы соединение у уже допущенной операции. При занятом bulkhead запрос отклоняется.
+     */
+    public QueryCacheStats getQueryCacheStats() {
+        if (sessionFactory == null) {
+            return QueryCacheStats.empty();
+        }
+        Statistics statistics = sessionFactory.getStatistics();
+        Deadline deadline = limits.start(Operation.STATS);
+        try (Bulkhead.Permit permit = bulkhead.enter(deadline);
+             Session session = sessionFactory.openSession()) {
+            return session.doReturningWork(connection -> {
+                int prepareThreshold = connection.unwrap(PGConnection.class).getPrepareThreshold();
+                long serverStatements = 0;
+                long serverExecutions = 0;
+                // generic_plans/custom_plans появились в PostgreSQL 14
+                try (Statement statement = connection.createStatement()) {
+                    statement.setQueryTimeout(deadline.remainingSeconds());
+                    ResultSet rs = statement.executeQuery(
+                            "SELECT count(*), coalesce(sum(generic_plans + custom_plans), 0) FROM pg_prepared_statements");
+                    if (rs.next()) {
+                        serverStatements = rs.getLong(1);
+                        serverExecutions = rs.getLong(2);
+                    }
+                } catch (SQLException e) {
+                    logger.debug("pg_prepared_statements недоступно: {}", e.getMessage());
+                }
+                return new QueryCacheStats(statistics.isStatisticsEnabled(),
+                        statistics.getQueryPlanCacheHitCount(),
+                        statistics.getQueryPlanCacheMissCount(),
+                        statistics.getPrepareStatementCount(),
+                        statistics.getQueryExecutionCount(),
+                        prepareThreshold, serverStatements, serverExecutions);
+            });
+        } catch (Exception e) {
+            logger.error("Ошибка получения статистики запросов: {}", e.getMessage(), e);
+            throw failure("Не удалось получить статистику запросов", e, deadline);
+        }
+    }
+
+    // ресурсы самого DAO; SessionFactory закрывает HibernateUtil.shutdown()
+    public void shutdown() {
+    }
+
+    public BulkheadStats getBulkheadStats() {
+        return bulkhead != null ? bulkhead.getStats() : BulkheadStats.empty();
+    }
+
+    public OperationLimits getLimits() {
+        return limits;
+    }
+
+    // таймаут транзакции Hibernate передает в Statement.setQueryTimeout каждого запроса внутри нее
+    private static Transaction beginTransaction(Session session, Deadline deadline) {
+        Transaction transaction = session.getTransaction();
+        transaction.setTimeout(deadline.remainingSeconds());
+        transaction.begin();
+        return transaction;
+    }
+
+    static DataAccessException failure(String message, Exception e, Deadline deadline) {
+        if (e instanceof DataAccessException dataAccessException) {
+            return dataAccessException;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof org.hibernate.QueryTimeoutException
+                    || cause instanceof jakarta.persistence.QueryTimeoutException) {
+                return new DeadlineExceededException(deadline.getOperation(), e);
+            }
+        }
+        return new DataAccessException(message, e);
+    }
+
     public static class DataAccessException extends RuntimeException {
         public DataAccessException(String message) {
             super(message);
@@ -199,4 +540,28 @@ public class UserDAO implements DAO<User, Long> {
             super(message, cause);
         }
     }
+
+    public static class OverloadedException extends DataAccessException {
+        public OverloadedException(String operation) {
+            super("База данных перегружена, запрос " + operation + " отклонен");
+        }
+        public OverloadedException(String operation, Throwable cause) {
+            super("База данных перегружена, запрос " + operation + " отклонен", cause);
+        }
+    }
+
+    public static class DeadlineExceededException extends DataAccessException {
+        public DeadlineExceededException(String operation) {
+            super("Превышено время выполнения запроса " + operation);
+        }
+        public DeadlineExceededException(String operation, Throwable cause) {
+            super("Превышено время выполнения запроса " + operation, cause);
+        }
+    }
+
+    public static class SlotMovingException extends DataAccessException {
+        public SlotMovingException(long id) {
+            super("Пользователь ID=" + id + " переносится на другой шард, повторите запрос позже");
+        }
+    }
 }
\ No newline at end of file
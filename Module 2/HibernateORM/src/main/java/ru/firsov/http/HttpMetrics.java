@@ -0,0 +1,73 @@
+package ru.firsov.http;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счетчики HTTP API по маршрутам: число запросов, ошибки, отказы из-за перегрузки и задержки.
+ * LongAdder вместо синхронизации: счетчики обновляются из тысяч виртуальных потоков.
+ */
+public class HttpMetrics {
+
+    private final Map<String, RouteStats> routes = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public void started() {
+        inFlight.incrementAndGet();
+    }
+
+    public void finished(String route, int status, long elapsedNanos) {
+        inFlight.decrementAndGet();
+        routes.computeIfAbsent(route, key -> new RouteStats()).record(status, elapsedNanos);
+    }
+
+    public void writeJson(JsonGenerator json) throws IOException {
+        json.writeNumberField("inFlight", inFlight.get());
+        json.writeObjectFieldStart("routes");
+        for (Map.Entry<String, RouteStats> entry : new TreeMap<>(routes).entrySet()) {
+            json.writeObjectFieldStart(entry.getKey());
+            entry.getValue().writeJson(json);
+            json.writeEndObject();
+        }
+        json.writeEndObject();
+    }
+
+    private static class RouteStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder clientErrors = new LongAdder();
+        private final LongAdder serverErrors = new LongAdder();
+        private final LongAdder shed = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(int status, long elapsedNanos) {
+            count.increment();
+            if (status == 503) {
+                shed.increment();
+            } else if (status >= 500) {
+                serverErrors.increment();
+            } else if (status >= 400) {
+                clientErrors.increment();
+            }
+            totalNanos.add(elapsedNanos);
+            maxNanos.accumulateAndGet(elapsedNanos, Math::max);
+        }
+
+        void writeJson(JsonGenerator json) throws IOException {
+            long requests = count.sum();
+            json.writeNumberField("count", requests);
+            json.writeNumberField("clientErrors", clientErrors.sum());
+            json.writeNumberField("serverErrors", serverErrors.sum());
+            json.writeNumberField("shed", shed.sum());
+            json.writeNumberField("avgMillis", requests == 0 ? 0 : totalNanos.sum() / 1e6 / requests);
+            json.writeNumberField("maxMillis", maxNanos.get() / 1e6);
+        }
+    }
+}
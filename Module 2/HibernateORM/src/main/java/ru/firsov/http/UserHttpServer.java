@@ -0,0 +1,429 @@
+package ru.firsov.http;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.firsov.User;
+import ru.firsov.dao.BulkheadStats;
+import ru.firsov.dao.QueryCacheStats;
+import ru.firsov.dao.SlowQueryMonitor;
+import ru.firsov.service.UserService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * HTTP/JSON API для UserService на встроенном JDK HttpServer.
+ * Каждый запрос обрабатывается в своем виртуальном потоке, поэтому блокирующие
+ * вызовы Hibernate не занимают потоки платформы. Соединения HTTP/1.1 остаются
+ * открытыми (keep-alive), конвейерные запросы по одному соединению обрабатываются по очереди.
+ *
+ * POST   /users                      создать
+ * GET    /users                      все пользователи (потоковый JSON-массив)
+ * GET    /users?email=...            поиск по email
+ * GET    /users?minAge=..&maxAge=..  поиск по возрасту
+ * GET    /users/{id}                 получить
+ * PUT    /users/{id}                 обновить
+ * DELETE /users/{id}                 удалить
+ * GET    /metrics                    метрики HTTP и DAO
+ */
+public class UserHttpServer {
+
+    private static final Logger logger = LogManager.getLogger(UserHttpServer.class);
+    private static final int BACKLOG = 1024;
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final String JSON = "application/json; charset=utf-8";
+
+    private final UserService userService;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpMetrics metrics = new HttpMetrics();
+
+    public UserHttpServer(UserService userService, int port) throws IOException {
+        this.userService = userService;
+        this.server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/users", exchange -> handle(exchange, this::routeUsers));
+        server.createContext("/metrics", exchange -> handle(exchange, this::routeMetrics));
+    }
+
+    public void start() {
+        server.start();
+        logger.info("HTTP API запущен на порту {}", server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.close();
+        logger.info("HTTP API остановлен");
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange, Route route) throws IOException {
+        long started = System.nanoTime();
+        metrics.started();
+        int status = 500;
+        String name = exchange.getRequestMethod() + " " + exchange.getHttpContext().getPath();
+        boolean aborted = false;
+        try {
+            name = route.name(exchange);
+            status = route.handle(exchange);
+        } catch (Exception e) {
+            if (exchange.getResponseCode() != -1) {
+                // статус и часть тела уже у клиента. exchange.close() дописал бы завершающий chunk,
+                // и обрезанный ответ выглядел бы полным, поэтому соединение разрывается: HttpServer
+                // закрывает его, если обработчик бросил исключение, не завершив ответ
+                logger.error("Ответ {} {} прерван после отправки заголовков: {}", exchange.getRequestMethod(),
+                        exchange.getRequestURI(), e.getMessage(), e);
+                aborted = true;
+                status = 500;
+                throw new IOException("Ответ прерван после отправки заголовков", e);
+            }
+            status = sendFailure(exchange, e);
+        } finally {
+            if (!aborted) {
+                exchange.close();
+            }
+            metrics.finished(name, status, System.nanoTime() - started);
+        }
+    }
+
+    private int sendFailure(HttpExchange exchange, Exception e) {
+        if (e instanceof BadRequestException || e instanceof IllegalArgumentException) {
+            return sendError(exchange, 400, e.getMessage());
+        }
+        if (e instanceof JsonProcessingException jsonException) {
+            return sendError(exchange, 400, "Некорректный JSON: " + jsonException.getOriginalMessage());
+        }
+        if (e instanceof NotFoundException) {
+            return sendError(exchange, 404, e.getMessage());
+        }
+        if (e instanceof UserService.ServiceUnavailableException) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            return sendError(exchange, 503, e.getMessage());
+        }
+        logger.error("Ошибка обработки {} {}: {}", exchange.getRequestMethod(),
+                exchange.getRequestURI(), e.getMessage(), e);
+        return sendError(exchange, 500, "Внутренняя ошибка сервера");
+    }
+
+    private int routeUsers(HttpExchange exchange) throws IOException {
+        Long id = pathId(exchange);
+        String method = exchange.getRequestMethod();
+        if (id == null) {
+            return switch (method) {
+                case "GET" -> searchUsers(exchange);
+                case "POST" -> createUser(exchange);
+                default -> methodNotAllowed(exchange, "GET, POST");
+            };
+        }
+        return switch (method) {
+            case "GET" -> getUser(exchange, id);
+            case "PUT" -> updateUser(exchange, id);
+            case "DELETE" -> deleteUser(exchange, id);
+            default -> methodNotAllowed(exchange, "GET, PUT, DELETE");
+        };
+    }
+
+    private int createUser(HttpExchange exchange) throws IOException {
+        UserRequest request = readBody(exchange);
+        User user = userService.createUser(request.name(), request.email(), request.age());
+        exchange.getResponseHeaders().set("Location", "/users/" + user.getId());
+        return sendUser(exchange, 201, user);
+    }
+
+    private int getUser(HttpExchange exchange, long id) throws IOException {
+        Optional<User> user = userService.getUserById(id);
+        if (user.isEmpty()) {
+            return sendError(exchange, 404, "Пользователь с ID=" + id + " не найден");
+        }
+        return sendUser(exchange, 200, user.get());
+    }
+
+    private int updateUser(HttpExchange exchange, long id) throws IOException {
+        UserRequest request = readBody(exchange);
+        if (!userService.userExists(id)) {
+            return sendError(exchange, 404, "Пользователь с ID=" + id + " не найден");
+        }
+        User user = userService.updateUser(id, request.name(), request.email(), request.age());
+        return sendUser(exchange, 200, user);
+    }
+
+    private int deleteUser(HttpExchange exchange, long id) throws IOException {
+        if (!userService.deleteUser(id)) {
+            return sendError(exchange, 404, "Пользователь с ID=" + id + " не найден");
+        }
+        exchange.sendResponseHeaders(204, -1);
+        return 204;
+    }
+
+    private int searchUsers(HttpExchange exchange) throws IOException {
+        Map<String, String> params = queryParams(exchange);
+        UserArrayWriter writer = new UserArrayWriter(exchange);
+        try {
+            if (params.containsKey("email")) {
+                userService.findByEmail(params.get("email")).ifPresent(writer);
+            } else if (params.containsKey("minAge") || params.containsKey("maxAge")) {
+                userService.streamUsersByAgeRange(intParam(params, "minAge", 0),
+                        intParam(params, "maxAge", Integer.MAX_VALUE), writer);
+            } else {
+                userService.streamAllUsers(writer);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.finish();
+        return 200;
+    }
+
+    private int routeMetrics(HttpExchange exchange) throws IOException {
+        if (pathId(exchange) != null) {
+            throw new NotFoundException("Ресурс " + exchange.getRequestURI().getPath() + " не найден");
+        }
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            return methodNotAllowed(exchange, "GET");
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonGenerator json = mapper.getFactory().createGenerator(body)) {
+            json.writeStartObject();
+            json.writeObjectFieldStart("http");
+            metrics.writeJson(json);
+            json.writeEndObject();
+            BulkheadStats bulkhead = userService.getDaoBulkheadStats();
+            json.writeObjectFieldStart("bulkhead");
+            json.writeNumberField("inFlight", bulkhead.inFlight());
+            json.writeNumberField("maxConcurrent", bulkhead.maxConcurrent());
+            json.writeNumberField("rejected", bulkhead.rejected());
+            json.writeEndObject();
+            json.writeObjectFieldStart("queryCache");
+            try {
+                QueryCacheStats stats = userService.getQueryCacheStats();
+                json.writeBooleanField("statisticsEnabled", stats.statisticsEnabled());
+                json.writeNumberField("planCacheHits", stats.planCacheHits());
+                json.writeNumberField("planCacheMisses", stats.planCacheMisses());
+                json.writeNumberField("preparedStatements", stats.preparedStatements());
+                json.writeNumberField("queryExecutions", stats.queryExecutions());
+                json.writeNumberField("prepareThreshold", stats.prepareThreshold());
+                json.writeNumberField("serverPreparedStatements", stats.serverPreparedStatements());
+                json.writeNumberField("serverPreparedExecutions", stats.serverPreparedExecutions());
+            } catch (RuntimeException e) {
+                json.writeStringField("error", e.getMessage());
+            }
+            json.writeEndObject();
+            json.writeArrayFieldStart("slowQueries");
+            for (SlowQueryMonitor.StatementSummary summary : SlowQueryMonitor.getInstance().topStatements(10)) {
+                json.writeStartObject();
+                json.writeStringField("shape", summary.shape());
+                json.writeNumberField("count", summary.count());
+                json.writeNumberField("slowCount", summary.slowCount());
+                json.writeNumberField("totalMillis", summary.totalMillis());
+                json.writeNumberField("maxMillis", summary.maxMillis());
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+        return send(exchange, 200, body.toByteArray());
+    }
+
+    private UserRequest readBody(HttpExchange exchange) throws IOException {
+        byte[] body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = in.readNBytes(MAX_BODY_BYTES + 1);
+        }
+        if (body.length > MAX_BODY_BYTES) {
+            throw new BadRequestException("Тело запроса превышает " + MAX_BODY_BYTES + " байт");
+        }
+        if (body.length == 0) {
+            throw new BadRequestException("Пустое тело запроса");
+        }
+        return mapper.readValue(body, UserRequest.class);
+    }
+
+    private int sendUser(HttpExchange exchange, int status, User user) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonGenerator json = mapper.getFactory().createGenerator(body)) {
+            writeUser(json, user);
+        }
+        return send(exchange, status, body.toByteArray());
+    }
+
+    private static void writeUser(JsonGenerator json, User user) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("id", user.getId());
+        json.writeStringField("name", user.getName());
+        json.writeStringField("email", user.getEmail());
+        if (user.getAge() != null) {
+            json.writeNumberField("age", user.getAge());
+        } else {
+            json.writeNullField("age");
+        }
+        json.writeStringField("createdAt", user.getCreatedAt() != null ? user.getCreatedAt().toString() : null);
+        json.writeEndObject();
+    }
+
+    private int sendError(HttpExchange exchange, int status, String message) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (JsonGenerator json = mapper.getFactory().createGenerator(body)) {
+                json.writeStartObject();
+                json.writeStringField("error", message);
+                json.writeEndObject();
+            }
+            return send(exchange, status, body.toByteArray());
+        } catch (IOException e) {
+            // заголовки уже отправлены или клиент отключился - отвечать некуда
+            logger.debug("Не удалось отправить ошибку {}: {}", status, e.getMessage());
+            return status;
+        }
+    }
+
+    private int methodNotAllowed(HttpExchange exchange, String allowed) {
+        exchange.getResponseHeaders().set("Allow", allowed);
+        return sendError(exchange, 405, "Метод не поддерживается");
+    }
+
+    private static int send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", JSON);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        return status;
+    }
+
+    private static Long pathId(HttpExchange exchange) {
+        String rest = exchange.getRequestURI().getPath().substring(exchange.getHttpContext().getPath().length());
+        if (rest.isEmpty() || rest.equals("/")) {
+            return null;
+        }
+        // контекст HttpServer совпадает по префиксу строки: /usersxyz тоже попадает сюда
+        if (rest.charAt(0) != '/') {
+            throw new NotFoundException("Ресурс " + exchange.getRequestURI().getPath() + " не найден");
+        }
+        try {
+            return Long.parseLong(rest.substring(1));
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Неверный формат ID: " + rest.substring(1));
+        }
+    }
+
+    private static Map<String, String> queryParams(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.put(key, value);
+        }
+        return params;
+    }
+
+    private static int intParam(Map<String, String> params, String name, int defaultValue) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Неверный формат параметра " + name + ": " + value);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Route {
+        int handle(HttpExchange exchange) throws IOException;
+
+        // имя маршрута для метрик: ID не попадает в ключ, иначе счетчиков будет по одному на пользователя
+        default String name(HttpExchange exchange) {
+            String path = exchange.getRequestURI().getPath();
+            String context = exchange.getHttpContext().getPath();
+            boolean item = path.length() > context.length() + 1;
+            return exchange.getRequestMethod() + " " + context + (item ? "/{id}" : "");
+        }
+    }
+
+    /**
+     * JSON-массив пользователей, который пишется в ответ по мере чтения строк из базы (chunked).
+     * Заголовки уходят вместе с первым элементом, поэтому ошибка до него (перегрузка, дедлайн)
+     * еще становится обычным ответом 503/500. После первого элемента статус уже отправлен:
+     * при ошибке handle разрывает соединение без завершающего chunk, и клиент получает
+     * ошибку чтения, а не 200 с обрезанным списком.
+     */
+    private final class UserArrayWriter implements Consumer<User> {
+        private final HttpExchange exchange;
+        private JsonGenerator json;
+
+        UserArrayWriter(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public void accept(User user) {
+            try {
+                start();
+                writeUser(json, user);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void finish() throws IOException {
+            start();
+            json.writeEndArray();
+            json.close();
+        }
+
+        private void start() throws IOException {
+            if (json != null) {
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", JSON);
+            exchange.sendResponseHeaders(200, 0);
+            json = mapper.getFactory().createGenerator(exchange.getResponseBody());
+            json.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            json.writeStartArray();
+        }
+    }
+
+    private record UserRequest(String name, String email, Integer age) {
+    }
+
+    private static class BadRequestException extends RuntimeException {
+        BadRequestException(String message) {
+            super(message);
+        }
+    }
+
+    private static class NotFoundException extends RuntimeException {
+        NotFoundException(String message) {
+            super(message);
+        }
+    }
+}
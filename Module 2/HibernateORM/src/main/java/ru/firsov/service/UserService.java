@@ -1,11 +1,17 @@
 package ru.firsov.service;
 
+import ru.firsov.HibernateUtil;
+import ru.firsov.dao.BulkheadStats;
+import ru.firsov.dao.QueryCacheStats;
+import ru.firsov.dao.ShardedUserDAO;
 import ru.firsov.dao.UserDAO;
 import ru.firsov.User;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class UserService {
 
@@ -18,7 +24,9 @@ public class UserService {
     private static final String EMAIL_REGEX = "^[A-Za-z0-9+_.-]+@[A-Za-z0-9.-]+\\.[A-Za-z]{2,}$";
 
     public UserService() {
-        this.userDAO = new UserDAO();
+        this.userDAO = HibernateUtil.isShardingEnabled()
+                ? new ShardedUserDAO(HibernateUtil.getShardSessionFactories(), HibernateUtil.getPreviousShardUrls())
+                : new UserDAO();
         logger.info("UserService инициализирован");
     }
 
@@ -45,7 +53,7 @@ public class UserService {
         user.setEmail(normalizedEmail);
         user.setAge(age);
 
-        User savedUser = userDAO.save(user);
+        User savedUser = callDao(() -> userDAO.save(user));
 
         logger.info("Пользователь успешно создан: ID={}, Email={}",
                 savedUser.getId(), savedUser.getEmail());
@@ -58,7 +66,7 @@ public class UserService {
             logger.warn("Некорректный ID пользователя: {}", id);
             return Optional.empty();
         }
-        Optional<User> user = userDAO.findById(id);
+        Optional<User> user = callDao(() -> userDAO.findById(id));
         if (user.isPresent()) {
             logger.debug("Пользователь найден: ID={}, Name={}",
                     id, user.get().getName());
@@ -68,9 +76,34 @@ public class UserService {
         return user;
     }
 
+    public Optional<User> findByEmail(String email) {
+        logger.debug("Запрос пользователя по email: {}", email);
+        if (email == null || email.trim().isEmpty()) {
+            return Optional.empty();
+        }
+        return callDao(() -> userDAO.findByEmail(email));
+    }
+
+    public void streamUsersByAgeRange(int minAge, int maxAge, Consumer<User> action) {
+        logger.debug("Потоковый запрос пользователей в возрасте {}-{}", minAge, maxAge);
+        validateAgeRange(minAge, maxAge);
+        callDao(() -> {
+            userDAO.streamByAgeBetween(minAge, maxAge, action);
+            return null;
+        });
+    }
+
+    public void streamAllUsers(Consumer<User> action) {
+        logger.debug("Потоковый запрос всех пользователей");
+        callDao(() -> {
+            userDAO.streamAll(action);
+            return null;
+        });
+    }
+
     public List<User> getAllUsers() {
         logger.debug("Запрос всех пользователей");
-        List<User> users = userDAO.findAll();
+        List<User> users = callDao(userDAO::findAll);
         logger.info("Получено {} пользователей", users.size());
         return users;
     }
@@ -81,7 +114,7 @@ public class UserService {
         if (!isValidId(id)) {
             throw new IllegalArgumentException("Некорректный ID пользователя: " + id);
         }
-        User user = userDAO.findById(id)
+        User user = callDao(() -> userDAO.findById(id))
                 .orElseThrow(() -> {
                     String errorMsg = String.format("Пользователь с ID=%d не найден", id);
                     logger.error(errorMsg);
@@ -118,7 +151,7 @@ public class UserService {
             }
         }
         if (isModified) {
-            User updatedUser = userDAO.update(user);
+            User updatedUser = callDao(() -> userDAO.update(user));
             logger.info("Пользователь ID={} успешно обновлен", id);
             return updatedUser;
         } else {
@@ -133,22 +166,40 @@ public class UserService {
             logger.warn("Некорректный ID для удаления: {}", id);
             return false;
         }
-        if (!userDAO.existsById(id)) {
+        if (!callDao(() -> userDAO.existsById(id))) {
             logger.warn("Пользователь с ID={} не существует, удаление невозможно", id);
             return false;
         }
         try {
-            userDAO.delete(id);
+            callDao(() -> {
+                userDAO.delete(id);
+                return null;
+            });
             logger.info("Пользователь ID={} успешно удален", id);
             return true;
+        } catch (ServiceUnavailableException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Ошибка при удалении пользователя ID={}: {}",
                     id, e.getMessage(), e);
             throw new ServiceException("Не удалось удалить пользователя", e);
         }
     }
+    public void shutdown() {
+        userDAO.shutdown();
+        logger.info("UserService остановлен");
+    }
+
+    public BulkheadStats getDaoBulkheadStats() {
+        return userDAO.getBulkheadStats();
+    }
+
+    public QueryCacheStats getQueryCacheStats() {
+        return callDao(userDAO::getQueryCacheStats);
+    }
+
     public boolean userExists(Long id) {
-        boolean exists = userDAO.existsById(id);
+        boolean exists = callDao(() -> userDAO.existsById(id));
         logger.trace("Пользователь ID={} существует: {}", id, exists);
         return exists;
     }
@@ -211,7 +262,7 @@ public class UserService {
         }
     }
     private void checkEmailUniqueness(String email) {
-        if (userDAO.findByEmail(email).isPresent()) {
+        if (callDao(() -> userDAO.findByEmail(email)).isPresent()) {
             String errorMsg = String.format("Пользователь с email '%s' уже существует", email);
             logger.warn(errorMsg);
             throw new IllegalArgumentException(errorMsg);
@@ -219,7 +270,7 @@ public class UserService {
     }
 
     private void checkEmailAvailabilityForUpdate(Long userId, String newEmail) {
-        Optional<User> existingUser = userDAO.findByEmail(newEmail);
+        Optional<User> existingUser = callDao(() -> userDAO.findByEmail(newEmail));
 
         if (existingUser.isPresent() && !existingUser.get().getId().equals(userId)) {
             String errorMsg = String.format(
@@ -230,6 +281,17 @@ public class UserService {
         }
     }
 
+    // перегрузку и истекший дедлайн DAO отдаем наружу отдельным типом, чтобы вызывающий мог повторить позже
+    private <T> T callDao(Supplier<T> call) {
+        try {
+            return call.get();
+        } catch (UserDAO.OverloadedException | UserDAO.DeadlineExceededException
+                 | UserDAO.SlotMovingException e) {
+            logger.warn("Запрос к БД не выполнен: {}", e.getMessage());
+            throw new ServiceUnavailableException(e.getMessage(), e);
+        }
+    }
+
     public void clearAllUsers() {
         logger.warn("Очистка всех пользователей из БД!");
         List<User> users = getAllUsers();
@@ -248,4 +310,10 @@ public class UserService {
             super(message, cause);
         }
     }
+
+    public static class ServiceUnavailableException extends ServiceException {
+        public ServiceUnavailableException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+package ru.firsov.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkheadTest {
+
+    @Test
+    void rejectsAndCountsWhenWaitRunsOut() {
+        Bulkhead bulkhead = new Bulkhead(1, Duration.ofMillis(50));
+        try (Bulkhead.Permit ignored = bulkhead.enter(Deadline.after("test", Duration.ofSeconds(5)))) {
+            assertThrows(UserDAO.OverloadedException.class,
+                    () -> bulkhead.enter(Deadline.after("test", Duration.ofSeconds(5))));
+            assertEquals(1, bulkhead.getRejectedCount());
+            assertEquals(1, bulkhead.getInFlight());
+        }
+    }
+
+    @Test
+    void waitIsCappedByDeadline() {
+        Bulkhead bulkhead = new Bulkhead(1, Duration.ofSeconds(30));
+        try (Bulkhead.Permit ignored = bulkhead.enter(Deadline.after("test", Duration.ofSeconds(5)))) {
+            long started = System.nanoTime();
+            assertThrows(UserDAO.OverloadedException.class,
+                    () -> bulkhead.enter(Deadline.after("test", Duration.ofMillis(50))));
+            assertTrue(Duration.ofNanos(System.nanoTime() - started).toSeconds() < 5);
+            assertEquals(1, bulkhead.getRejectedCount());
+        }
+    }
+
+    @Test
+    void permitIsReleasedOnClose() {
+        Bulkhead bulkhead = new Bulkhead(2, Duration.ofMillis(50));
+        Deadline deadline = Deadline.after("test", Duration.ofSeconds(5));
+        try (Bulkhead.Permit first = bulkhead.enter(deadline);
+             Bulkhead.Permit second = bulkhead.enter(deadline)) {
+            assertEquals(2, bulkhead.getInFlight());
+        }
+        assertEquals(0, bulkhead.getInFlight());
+        try (Bulkhead.Permit ignored = bulkhead.enter(deadline)) {
+            assertEquals(1, bulkhead.getInFlight());
+        }
+        assertEquals(0, bulkhead.getRejectedCount());
+    }
+
+    @Test
+    void rejectsNonPositiveLimit() {
+        assertThrows(IllegalArgumentException.class, () -> new Bulkhead(0, Duration.ofMillis(50)));
+    }
+}
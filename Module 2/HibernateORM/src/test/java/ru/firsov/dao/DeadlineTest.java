@@ -0,0 +1,38 @@
+package ru.firsov.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeadlineTest {
+
+    @Test
+    void remainingSecondsRoundsUp() {
+        assertEquals(2, Deadline.after("test", Duration.ofMillis(1500)).remainingSeconds());
+        assertEquals(1, Deadline.after("test", Duration.ofMillis(300)).remainingSeconds());
+        assertEquals(60, Deadline.after("test", Duration.ofSeconds(60)).remainingSeconds());
+    }
+
+    @Test
+    void expiredDeadlineThrows() throws InterruptedException {
+        Deadline deadline = Deadline.after("find_all", Duration.ofMillis(1));
+        Thread.sleep(5);
+        assertTrue(deadline.isExpired());
+        assertEquals(0, deadline.remainingMillis());
+        assertThrows(UserDAO.DeadlineExceededException.class, deadline::remainingSeconds);
+    }
+
+    @Test
+    void remainingMillisCountsDown() {
+        Deadline deadline = Deadline.after("test", Duration.ofSeconds(10));
+        assertFalse(deadline.isExpired());
+        long remaining = deadline.remainingMillis();
+        assertTrue(remaining > 9_000 && remaining <= 10_000);
+        assertEquals("test", deadline.getOperation());
+    }
+}
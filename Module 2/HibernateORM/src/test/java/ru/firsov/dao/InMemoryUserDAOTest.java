@@ -0,0 +1,162 @@
+package ru.firsov.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.firsov.User;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryUserDAOTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void snapshotRoundTripRestoresUsersAndIndexes() {
+        InMemoryUserDAO dao = new InMemoryUserDAO();
+        for (int i = 0; i < 500; i++) {
+            dao.save(user("Пользователь " + i, "user" + i + "@example.com", i % 10 == 0 ? null : 18 + i % 50));
+        }
+        dao.delete(7L);
+        Path file = tempDir.resolve("users.snapshot");
+        dao.snapshot(file);
+
+        InMemoryUserDAO restored = InMemoryUserDAO.restore(file);
+
+        List<User> expected = dao.findAll();
+        List<User> actual = restored.findAll();
+        assertEquals(499, actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameUser(expected.get(i), actual.get(i));
+        }
+        assertEquals(dao.findByAgeBetween(20, 30).size(), restored.findByAgeBetween(20, 30).size());
+        assertTrue(restored.findByEmail("user42@example.com").isPresent());
+        assertFalse(restored.existsById(7L));
+        LocalDateTime createdAt = expected.get(100).getCreatedAt();
+        assertEquals(dao.findCreatedBetween(createdAt, createdAt).size(),
+                restored.findCreatedBetween(createdAt, createdAt).size());
+        // последовательность продолжается после максимального ID снимка
+        assertEquals(501L, restored.save(user("Новый", "new@example.com", 30)).getId());
+        assertThrows(UserDAO.DataAccessException.class,
+                () -> restored.save(user("Дубликат", "user1@example.com", 30)));
+    }
+
+    @Test
+    void restoreRejectsForeignFile() throws Exception {
+        Path file = tempDir.resolve("garbage.bin");
+        Files.write(file, new byte[64]);
+        assertThrows(UserDAO.DataAccessException.class, () -> InMemoryUserDAO.restore(file));
+    }
+
+    @Test
+    void restoreRejectsCorruptedSizesWithoutAllocating() throws Exception {
+        InMemoryUserDAO dao = new InMemoryUserDAO();
+        dao.save(user("Анна", "anna@example.com", 25));
+        Path file = tempDir.resolve("users.snapshot");
+        dao.snapshot(file);
+        byte[] original = Files.readAllBytes(file);
+
+        // заголовок: magic, version, lastId, count; дальше первая запись, длина name по смещению 44
+        Path hugeCount = tempDir.resolve("huge-count.snapshot");
+        Files.write(hugeCount, patchInt(original, 16, Integer.MAX_VALUE));
+        assertThrows(UserDAO.DataAccessException.class, () -> InMemoryUserDAO.restore(hugeCount));
+
+        Path hugeName = tempDir.resolve("huge-name.snapshot");
+        Files.write(hugeName, patchInt(original, 44, Integer.MAX_VALUE - 8));
+        assertThrows(UserDAO.DataAccessException.class, () -> InMemoryUserDAO.restore(hugeName));
+
+        Path truncated = tempDir.resolve("truncated.snapshot");
+        Files.write(truncated, Arrays.copyOf(original, original.length - 3));
+        assertThrows(UserDAO.DataAccessException.class, () -> InMemoryUserDAO.restore(truncated));
+    }
+
+    @Test
+    void updateMovesUserBetweenIndexEntries() {
+        InMemoryUserDAO dao = new InMemoryUserDAO();
+        User saved = dao.save(user("Анна", "anna@example.com", 25));
+        saved.setAge(40);
+        saved.setEmail("anna.new@example.com");
+        dao.update(saved);
+
+        assertTrue(dao.findByAgeBetween(20, 30).isEmpty());
+        assertEquals(1, dao.findByAgeBetween(40, 40).size());
+        assertTrue(dao.findByEmail("anna@example.com").isEmpty());
+        assertTrue(dao.findByEmail("anna.new@example.com").isPresent());
+
+        dao.delete(saved.getId());
+        assertTrue(dao.findByAgeBetween(0, 200).isEmpty());
+    }
+
+    @Test
+    void concurrentUpdatesLeaveNoUsersOutsideRequestedRange() throws Exception {
+        InMemoryUserDAO dao = new InMemoryUserDAO();
+        User saved = dao.save(user("Гонка", "race@example.com", 1));
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            Future<?>[] futures = new Future<?>[threads];
+            for (int t = 0; t < threads; t++) {
+                int offset = t;
+                futures[t] = executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 20_000; i++) {
+                        User copy = dao.findById(saved.getId()).orElseThrow();
+                        copy.setAge(1 + (i + offset) % 3);
+                        dao.update(copy);
+                        for (User found : dao.findByAgeBetween(2, 2)) {
+                            assertEquals(2, found.getAge());
+                        }
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        int age = dao.findById(saved.getId()).orElseThrow().getAge();
+        assertEquals(1, dao.findByAgeBetween(age, age).size());
+        assertEquals(1, dao.findByAgeBetween(1, 3).size());
+    }
+
+    private static User user(String name, String email, Integer age) {
+        User user = new User();
+        user.setName(name);
+        user.setEmail(email);
+        user.setAge(age);
+        return user;
+    }
+
+    private static byte[] patchInt(byte[] bytes, int offset, int value) {
+        byte[] copy = bytes.clone();
+        ByteBuffer.wrap(copy).putInt(offset, value);
+        return copy;
+    }
+
+    private static void assertSameUser(User expected, User actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getEmail(), actual.getEmail());
+        assertEquals(expected.getAge(), actual.getAge());
+        assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
+    }
+}
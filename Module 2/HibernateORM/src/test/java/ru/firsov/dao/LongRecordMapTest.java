@@ -0,0 +1,86 @@
+package ru.firsov.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LongRecordMapTest {
+
+    @Test
+    void matchesHashMapUnderRandomOperations() {
+        Random random = new Random(42);
+        LongRecordMap<String> map = new LongRecordMap<>(4);
+        Map<Long, String> expected = new HashMap<>();
+        // небольшой диапазон ключей: много коллизий, длинные цепочки и удаление из их середины
+        for (int step = 0; step < 200_000; step++) {
+            long key = 1 + random.nextInt(2_000);
+            switch (random.nextInt(3)) {
+                case 0 -> assertEquals(expected.put(key, "v" + step), map.put(key, "v" + step));
+                case 1 -> assertEquals(expected.remove(key), map.remove(key));
+                default -> assertEquals(expected.get(key), map.get(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = 1; key <= 2_000; key++) {
+            assertEquals(expected.get(key), map.get(key), "ключ " + key);
+        }
+        Map<String, Integer> visited = new HashMap<>();
+        map.forEach(value -> visited.merge(value, 1, Integer::sum));
+        assertEquals(expected.size(), visited.size());
+        for (String value : expected.values()) {
+            assertEquals(1, visited.get(value));
+        }
+    }
+
+    @Test
+    void removeKeepsCollidingKeysReachable() {
+        LongRecordMap<Long> map = new LongRecordMap<>(16);
+        // ключи с одинаковым остатком хеша попадают в одну цепочку пробирования
+        int mask = 31;
+        int bucket = LongRecordMap.mix(1) & mask;
+        long[] colliding = new long[6];
+        int found = 0;
+        for (long key = 1; found < colliding.length; key++) {
+            if ((LongRecordMap.mix(key) & mask) == bucket) {
+                colliding[found++] = key;
+            }
+        }
+        for (long key : colliding) {
+            map.put(key, key);
+        }
+        map.remove(colliding[0]);
+        map.remove(colliding[3]);
+        for (int i = 0; i < colliding.length; i++) {
+            if (i == 0 || i == 3) {
+                assertNull(map.get(colliding[i]));
+            } else {
+                assertEquals(colliding[i], map.get(colliding[i]));
+            }
+        }
+        assertEquals(colliding.length - 2, map.size());
+    }
+
+    @Test
+    void clearEmptiesMap() {
+        LongRecordMap<String> map = new LongRecordMap<>(16);
+        for (long key = 1; key <= 100; key++) {
+            map.put(key, "v" + key);
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(50));
+    }
+
+    @Test
+    void rejectsNonPositiveKeys() {
+        LongRecordMap<String> map = new LongRecordMap<>(16);
+        assertThrows(IllegalArgumentException.class, () -> map.put(0, "zero"));
+        assertThrows(IllegalArgumentException.class, () -> map.put(-1, "negative"));
+    }
+}
@@ -0,0 +1,43 @@
+package ru.firsov.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OperationLimitsTest {
+
+    @Test
+    void maxConcurrentFallsBackToPoolSize() {
+        OperationLimits limits = OperationLimits.fromProperties(Map.of("hibernate.connection.pool_size", "4"));
+        assertEquals(4, limits.getMaxConcurrent());
+
+        limits = OperationLimits.fromProperties(Map.of(
+                "hibernate.connection.pool_size", "4",
+                "user_dao.bulkhead.max_concurrent", "7"));
+        assertEquals(7, limits.getMaxConcurrent());
+    }
+
+    @Test
+    void deadlinesFallBackToDefault() {
+        OperationLimits limits = OperationLimits.fromProperties(Map.of(
+                "user_dao.deadline.default_ms", "3000",
+                "user_dao.deadline.find_all_ms", "10000",
+                "user_dao.bulkhead.max_wait_ms", " "));
+        assertEquals(Duration.ofSeconds(10), limits.getDeadline(OperationLimits.Operation.FIND_ALL));
+        assertEquals(Duration.ofSeconds(3), limits.getDeadline(OperationLimits.Operation.FIND_BY_ID));
+        assertEquals(Duration.ofMillis(200), limits.getMaxWait());
+        assertEquals(10, OperationLimits.defaults().getMaxConcurrent());
+    }
+
+    @Test
+    void rejectsNonNumericValues() {
+        assertThrows(IllegalArgumentException.class,
+                () -> OperationLimits.fromProperties(Map.of("user_dao.deadline.count_ms", "5s")));
+        assertThrows(IllegalArgumentException.class,
+                () -> OperationLimits.fromProperties(Map.of("hibernate.connection.pool_size", "ten")));
+    }
+}
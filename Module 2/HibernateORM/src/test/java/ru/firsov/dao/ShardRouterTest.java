@@ -0,0 +1,106 @@
+package ru.firsov.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardRouterTest {
+
+    private static final List<String> THREE_SHARDS = List.of(
+            "jdbc:postgresql://localhost:5433/user_service",
+            "jdbc:postgresql://localhost:5434/user_service",
+            "jdbc:postgresql://localhost:5435/user_service");
+    private static final String FOURTH_SHARD = "jdbc:postgresql://localhost:5436/user_service";
+
+    @Test
+    void idEncodingRoundTrips() {
+        for (int slot : new int[]{0, 1, 511, ShardRouter.SLOT_COUNT - 1}) {
+            for (long sequence : new long[]{1, 64, 12_345_678, (1L << ShardRouter.SEQUENCE_BITS) - 1}) {
+                long id = ShardRouter.composeId(slot, sequence);
+                assertEquals(slot, ShardRouter.slotOfId(id));
+                assertTrue(id >= ShardRouter.firstIdOfSlot(slot) && id <= ShardRouter.lastIdOfSlot(slot));
+            }
+            if (slot > 0) {
+                assertEquals(ShardRouter.lastIdOfSlot(slot - 1) + 1, ShardRouter.firstIdOfSlot(slot));
+            }
+        }
+    }
+
+    @Test
+    void idsStayWithinJavaScriptSafeIntegers() {
+        long maxSafeInteger = (1L << 53) - 1;
+        assertEquals(maxSafeInteger, ShardRouter.lastIdOfSlot(ShardRouter.SLOT_COUNT - 1));
+        assertTrue(ShardRouter.isValidId(maxSafeInteger));
+        assertFalse(ShardRouter.isValidId(maxSafeInteger + 1));
+        assertFalse(ShardRouter.isValidId(0));
+    }
+
+    @Test
+    void rejectsOutOfRangeValues() {
+        assertThrows(IllegalArgumentException.class, () -> ShardRouter.composeId(0, 0));
+        assertThrows(IllegalArgumentException.class, () -> ShardRouter.composeId(0, 1L << ShardRouter.SEQUENCE_BITS));
+        assertThrows(IllegalArgumentException.class, () -> ShardRouter.composeId(-1, 1));
+        assertThrows(IllegalArgumentException.class, () -> ShardRouter.composeId(ShardRouter.SLOT_COUNT, 1));
+        assertThrows(IllegalArgumentException.class, () -> ShardRouter.firstIdOfSlot(ShardRouter.SLOT_COUNT));
+        assertThrows(IllegalArgumentException.class, () -> ShardRouter.slotOfId(0));
+        assertThrows(IllegalArgumentException.class, () -> ShardRouter.slotOfId(1L << 53));
+        assertThrows(IllegalArgumentException.class, () -> new ShardRouter(List.of()));
+    }
+
+    @Test
+    void routingIsStableAcrossInstances() {
+        ShardRouter first = new ShardRouter(THREE_SHARDS);
+        ShardRouter second = new ShardRouter(List.copyOf(THREE_SHARDS));
+        for (int slot = 0; slot < ShardRouter.SLOT_COUNT; slot++) {
+            assertEquals(first.shardOfSlot(slot), second.shardOfSlot(slot));
+        }
+        // слот email зависит только от нормализованного email
+        assertEquals(ShardRouter.slotOfEmail("ivan@example.com"), ShardRouter.slotOfEmail("  IVAN@example.com "));
+        assertEquals(first.shardOfEmail("ivan@example.com"), second.shardOfEmail("ivan@example.com"));
+    }
+
+    @Test
+    void slotsAreSpreadOverAllShards() {
+        ShardRouter router = new ShardRouter(THREE_SHARDS);
+        int[] owned = new int[router.shardCount()];
+        for (int slot = 0; slot < ShardRouter.SLOT_COUNT; slot++) {
+            owned[router.shardOfSlot(slot)]++;
+        }
+        for (int count : owned) {
+            assertTrue(count > ShardRouter.SLOT_COUNT / 6, "слишком мало слотов на шарде: " + count);
+        }
+    }
+
+    @Test
+    void addingShardMovesSlotsOnlyToNewShard() {
+        ShardRouter before = new ShardRouter(THREE_SHARDS);
+        List<String> fourShards = new ArrayList<>(THREE_SHARDS);
+        fourShards.add(FOURTH_SHARD);
+        ShardRouter after = new ShardRouter(fourShards);
+        int moved = 0;
+        for (int slot = 0; slot < ShardRouter.SLOT_COUNT; slot++) {
+            if (before.shardOfSlot(slot) != after.shardOfSlot(slot)) {
+                assertEquals(3, after.shardOfSlot(slot), "слот " + slot + " переехал не на новый шард");
+                moved++;
+            }
+        }
+        // в идеале переезжает четверть слотов
+        assertTrue(moved > ShardRouter.SLOT_COUNT / 8 && moved < ShardRouter.SLOT_COUNT / 2, "перенесено " + moved);
+    }
+
+    @Test
+    void previousShardsMapOntoCurrentIndexes() {
+        ShardRouter current = new ShardRouter(List.of("a", "b", "c"));
+        assertArrayEquals(new int[]{0, 1}, ShardedUserDAO.mapPreviousShards(current, new ShardRouter(List.of("a", "b"))));
+        assertArrayEquals(new int[]{2, 0}, ShardedUserDAO.mapPreviousShards(current, new ShardRouter(List.of("c", "a"))));
+        assertThrows(IllegalArgumentException.class,
+                () -> ShardedUserDAO.mapPreviousShards(current, new ShardRouter(List.of("a", "x"))));
+    }
+}
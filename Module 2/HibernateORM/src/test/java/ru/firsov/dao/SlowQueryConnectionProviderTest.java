@@ -0,0 +1,31 @@
+package ru.firsov.dao;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SlowQueryConnectionProviderTest {
+
+    @Test
+    void analyzesPlainReads() {
+        assertTrue(SlowQueryConnectionProvider.analyzable(
+                "select u1_0.id,u1_0.age from users u1_0 where u1_0.updated_at > ?"));
+        assertTrue(SlowQueryConnectionProvider.analyzable(
+                "  WITH recent AS (SELECT id FROM users) SELECT count(*) FROM recent"));
+    }
+
+    @Test
+    void neverAnalyzesStatementsWithSideEffects() {
+        assertFalse(SlowQueryConnectionProvider.analyzable("select nextval('users_shard_id_seq')"));
+        assertFalse(SlowQueryConnectionProvider.analyzable("SELECT * FROM users WHERE id = ? FOR UPDATE"));
+        assertFalse(SlowQueryConnectionProvider.analyzable("select * from users for no key update"));
+        assertFalse(SlowQueryConnectionProvider.analyzable("select * from users for share"));
+        assertFalse(SlowQueryConnectionProvider.analyzable(
+                "with moved as (delete from users where id = ? returning *) select * from moved"));
+        assertFalse(SlowQueryConnectionProvider.analyzable("select pg_advisory_lock(42)"));
+        assertFalse(SlowQueryConnectionProvider.analyzable("insert into users (name) values (?)"));
+        assertFalse(SlowQueryConnectionProvider.analyzable("update users set age = ? where id = ?"));
+        assertFalse(SlowQueryConnectionProvider.analyzable("delete from users where id = ?"));
+    }
+}